@@ -0,0 +1,80 @@
+package it.eng.dome.invoicing.engine.benchmark;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import it.eng.dome.invoicing.engine.rate.RateManager;
+
+/**
+ * Throughput of a single rate lookup of RateManager, once the countries of the organizations are
+ * cached: with <code>vatRateTable=false</code> every rate comes from the cached TEDB client.
+ * <p>
+ * Run with <code>mvn -Pjmh test-compile exec:exec -Djmh.args="RateManagerBenchmark -prof gc"</code> to also
+ * report the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RateManagerBenchmark {
+
+    // distinct organizations, looked up in turn
+    @Param({ "10" })
+    public int parties;
+
+    @Param({ "true", "false" })
+    public boolean vatRateTable;
+
+    private TedbStub tedb;
+    private AnnotationConfigApplicationContext context;
+    private RateManager rateManager;
+
+    private String[] partyIds;
+    private Calendar date;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.tedb = new TedbStub(0);
+        this.context = TaxBenchmarkContext.start(this.tedb, 0, this.vatRateTable);
+        this.rateManager = this.context.getBean(RateManager.class);
+        this.partyIds = new String[this.parties];
+        for (int i = 0; i < this.parties; i++) {
+            this.partyIds[i] = SamplePayloads.partyId(i, 0);
+        }
+        this.date = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        this.date.set(2025, Calendar.JUNE, 19);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+        this.tedb.close();
+    }
+
+    @Benchmark
+    public Number getVATRateFor() throws Exception {
+        String partyId = this.partyIds[this.next];
+        this.next = (this.next + 1) % this.partyIds.length;
+        return this.rateManager.getVATRateFor(partyId, partyId, this.date);
+    }
+
+}
@@ -0,0 +1,84 @@
+package it.eng.dome.invoicing.engine.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.eng.dome.invoicing.engine.model.InvoiceBom;
+import it.eng.dome.invoicing.engine.service.render.BomToPeppol;
+import it.eng.dome.invoicing.engine.service.render.Envelope;
+import it.eng.dome.invoicing.engine.service.render.Html2Pdf;
+import it.eng.dome.invoicing.engine.service.render.Peppol2XML;
+import it.eng.dome.invoicing.engine.service.render.PeppolXML2Html;
+import peppol.bis.invoice3.domain.Invoice;
+
+/**
+ * Cost of each stage of the render pipeline, on its own: every benchmark starts from the
+ * output of the previous stage, rendered once at setup.
+ * <ul>
+ * <li><code>bomToPeppol</code>: BOM to PEPPOL invoice;</li>
+ * <li><code>peppol2Xml</code>: validation and pretty printing of the UBL XML;</li>
+ * <li><code>xml2Html</code>: XSLT transformation;</li>
+ * <li><code>html2Pdf</code>: HTML parsing and PDF layout.</li>
+ * </ul>
+ * Run with <code>mvn -Pjmh test-compile exec:exec -Djmh.args="RenderBenchmark -prof gc"</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RenderBenchmark {
+
+    // number of ACBRs, i.e. invoice lines
+    @Param({ "1", "50", "1000" })
+    public int acbrs;
+
+    private Envelope<InvoiceBom> bom;
+    private Envelope<Invoice> invoice;
+    private Envelope<String> xml;
+    private Envelope<String> html;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Html2Pdf.warmUp();
+        this.bom = SyntheticBoms.bom(this.acbrs);
+        this.invoice = new BomToPeppol().render(this.bom);
+        this.xml = new Peppol2XML().render(this.invoice);
+        this.html = new PeppolXML2Html().render(this.xml);
+    }
+
+    @Benchmark
+    public Envelope<Invoice> bomToPeppol() {
+        return new BomToPeppol().render(this.bom);
+    }
+
+    @Benchmark
+    public Envelope<String> peppol2Xml() {
+        return new Peppol2XML().render(this.invoice);
+    }
+
+    @Benchmark
+    public Envelope<String> xml2Html() throws Exception {
+        return new PeppolXML2Html().render(this.xml);
+    }
+
+    @Benchmark
+    public Envelope<ByteArrayOutputStream> html2Pdf() throws Exception {
+        return new Html2Pdf().render(this.html);
+    }
+
+}
@@ -0,0 +1,130 @@
+package it.eng.dome.invoicing.engine.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.eng.dome.brokerage.model.Invoice;
+import it.eng.dome.brokerage.utils.enumappers.TMF678EnumModule;
+import it.eng.dome.tmforum.tmf622.v4.model.Money;
+import it.eng.dome.tmforum.tmf622.v4.model.OrderPrice;
+import it.eng.dome.tmforum.tmf622.v4.model.Price;
+import it.eng.dome.tmforum.tmf622.v4.model.ProductOrder;
+import it.eng.dome.tmforum.tmf622.v4.model.ProductOrderItem;
+import it.eng.dome.tmforum.tmf622.v4.model.RelatedParty;
+
+/**
+ * Builds the payloads of the billing scheduler from the bundled <code>sample_data/Test - Apply Taxes.json</code>:
+ * bulk invoices are copies of its invoices, each copy billed by an organization of a pool.
+ * Buyer and seller of a copy are the same organization, so VAT always applies; the organizations
+ * are spread over the countries of {@link TedbStub#RATES}, which {@link #countryOf(String)} reads
+ * back from their id.
+ */
+public final class SamplePayloads {
+
+    private static final String SAMPLE = "sample_data/Test - Apply Taxes.json";
+
+    // the only organization of the sample
+    private static final String SAMPLE_PARTY = "urn:ngsi-ld:organization:38063c78-fc9f-42ca-a39e-518107a2d403";
+
+    private static final String[] COUNTRIES = TedbStub.RATES.keySet().stream().sorted().toArray(String[]::new);
+
+    // as configured by Spring Boot, plus the TMF678 enums of JacksonModuleConfig
+    private static final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().modulesToInstall(new TMF678EnumModule()).build();
+
+    private static final String sample = readSample();
+
+    private SamplePayloads() {
+    }
+
+    /**
+     * @param count the number of invoices
+     * @param parties the number of distinct organizations billing them
+     * @param generation changes the ids of the organizations, so that they are not cached yet
+     */
+    public static List<Invoice> invoices(int count, int parties, int generation) {
+        List<Invoice> invoices = new ArrayList<>(count);
+        for (int copy = 0; invoices.size() < count; copy++) {
+            String json = sample.replace(SAMPLE_PARTY, partyId(copy % parties, generation));
+            try {
+                for (Invoice invoice : mapper.readValue(json, new TypeReference<List<Invoice>>() {})) {
+                    if (invoices.size() < count) {
+                        invoices.add(invoice);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to parse " + SAMPLE, e);
+            }
+        }
+        return invoices;
+    }
+
+    /**
+     * A product order of the given organization, with an order total price and the given number of items.
+     */
+    public static ProductOrder order(int party, int generation, int items) {
+        String partyId = partyId(party, generation);
+        ProductOrder order = new ProductOrder();
+        order.setRelatedParty(new ArrayList<>(List.of(relatedParty(partyId, "Seller"), relatedParty(partyId, "Buyer"))));
+        order.setOrderTotalPrice(new ArrayList<>(List.of(orderPrice(20f * items))));
+        List<ProductOrderItem> orderItems = new ArrayList<>(items);
+        for (int i = 1; i <= items; i++) {
+            ProductOrderItem item = new ProductOrderItem();
+            item.setId(String.valueOf(i));
+            item.setItemPrice(new ArrayList<>(List.of(orderPrice(20f))));
+            item.setItemTotalPrice(new ArrayList<>(List.of(orderPrice(20f))));
+            orderItems.add(item);
+        }
+        order.setProductOrderItem(orderItems);
+        return order;
+    }
+
+    public static String partyId(int party, int generation) {
+        return "urn:ngsi-ld:organization:benchmark-" + generation + "-" + party + "-" + COUNTRIES[party % COUNTRIES.length];
+    }
+
+    /**
+     * @return the country of an organization of {@link #partyId(int, int)}
+     */
+    public static String countryOf(String partyId) {
+        return partyId.substring(partyId.length() - 2);
+    }
+
+    private static RelatedParty relatedParty(String id, String role) {
+        RelatedParty party = new RelatedParty();
+        party.setId(id);
+        party.setRole(role);
+        return party;
+    }
+
+    private static OrderPrice orderPrice(float value) {
+        Money money = new Money();
+        money.setUnit("EUR");
+        money.setValue(value);
+        Price price = new Price();
+        price.setDutyFreeAmount(money);
+        OrderPrice orderPrice = new OrderPrice();
+        orderPrice.setPrice(price);
+        return orderPrice;
+    }
+
+    private static String readSample() {
+        try (InputStream in = SamplePayloads.class.getClassLoader().getResourceAsStream(SAMPLE)) {
+            if (in == null) {
+                throw new IllegalStateException(SAMPLE + " not found");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read " + SAMPLE, e);
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package it.eng.dome.invoicing.engine.benchmark;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import it.eng.dome.invoicing.engine.model.InvoiceBom;
+import it.eng.dome.invoicing.engine.service.render.Envelope;
+import it.eng.dome.invoicing.engine.service.utils.MoneyUtils;
+import it.eng.dome.tmforum.tmf632.v4.model.Characteristic;
+import it.eng.dome.tmforum.tmf632.v4.model.ExternalReference;
+import it.eng.dome.tmforum.tmf632.v4.model.Organization;
+import it.eng.dome.tmforum.tmf637.v4.model.Product;
+import it.eng.dome.tmforum.tmf678.v4.model.AppliedBillingTaxRate;
+import it.eng.dome.tmforum.tmf678.v4.model.AppliedCustomerBillingRate;
+import it.eng.dome.tmforum.tmf678.v4.model.CustomerBill;
+import it.eng.dome.tmforum.tmf678.v4.model.Money;
+import it.eng.dome.tmforum.tmf678.v4.model.ProductRef;
+import it.eng.dome.tmforum.tmf678.v4.model.RelatedParty;
+
+/**
+ * Builds BOMs with the given number of ACBRs, as BomService would assemble them from TMForum:
+ * an Italian seller billing a German buyer, 22% VAT, one product per ACBR and a discount
+ * every ten ACBRs. The content is deterministic, so runs are comparable.
+ */
+public final class SyntheticBoms {
+
+    private static final OffsetDateTime BILL_DATE = OffsetDateTime.of(2025, 6, 19, 17, 14, 33, 0, ZoneOffset.UTC);
+
+    private static final BigDecimal VAT = new BigDecimal("0.22");
+
+    private SyntheticBoms() {
+    }
+
+    public static Envelope<InvoiceBom> bom(int acbrs) {
+        Organization seller = organization("urn:ngsi-ld:organization:seller", "Seller Srl", "IT", "IT01234567890");
+        Organization buyer = organization("urn:ngsi-ld:organization:buyer", "Buyer GmbH", "DE", "DE123456789");
+
+        CustomerBill cb = new CustomerBill();
+        cb.setId("urn:ngsi-ld:customer-bill:synthetic-" + acbrs);
+        cb.setBillNo("BILL-" + acbrs);
+        cb.setBillDate(BILL_DATE);
+        cb.setLastUpdate(BILL_DATE);
+        cb.setPaymentDueDate(BILL_DATE.plusDays(30));
+        cb.setRelatedParty(new ArrayList<>(List.of(party(seller, "Seller"), party(buyer, "Buyer"))));
+
+        InvoiceBom bom = new InvoiceBom(cb);
+        bom.add(seller, "Seller");
+        bom.add(buyer, "Buyer");
+
+        BigDecimal taxExcluded = MoneyUtils.ZERO;
+        BigDecimal taxIncluded = MoneyUtils.ZERO;
+        for (int i = 1; i <= acbrs; i++) {
+            Product product = new Product();
+            product.setId("urn:ngsi-ld:product:synthetic-" + i);
+            product.setName("Synthetic product " + i);
+            bom.add(product);
+
+            // a discount every ten lines
+            BigDecimal amount = i % 10 == 0 ? new BigDecimal("-5.00") : new BigDecimal(10 + (i % 7) * 3 + ".49");
+            BigDecimal tax = MoneyUtils.taxOf(amount, VAT);
+            bom.add(acbr(cb.getId() + ":acbr-" + i, product, amount, tax));
+
+            taxExcluded = taxExcluded.add(amount);
+            taxIncluded = taxIncluded.add(amount).add(tax);
+        }
+        cb.setTaxExcludedAmount(money(taxExcluded));
+        cb.setTaxIncludedAmount(money(taxIncluded));
+        cb.setAmountDue(money(taxIncluded));
+
+        return new Envelope<>(bom, "Invoice from Seller Srl to Buyer GmbH on " + BILL_DATE.toLocalDate(), "bom");
+    }
+
+    private static Organization organization(String id, String name, String country, String vatId) {
+        Characteristic countryCharacteristic = new Characteristic();
+        countryCharacteristic.setName("country");
+        countryCharacteristic.setValue(country);
+
+        ExternalReference vat = new ExternalReference();
+        vat.setName(vatId);
+        vat.setExternalReferenceType("idm_id");
+
+        Organization organization = new Organization();
+        organization.setId(id);
+        organization.setName(name);
+        organization.setTradingName(name);
+        organization.setPartyCharacteristic(new ArrayList<>(List.of(countryCharacteristic)));
+        organization.setExternalReference(new ArrayList<>(List.of(vat)));
+        return organization;
+    }
+
+    private static RelatedParty party(Organization organization, String role) {
+        RelatedParty party = new RelatedParty();
+        party.setId(organization.getId());
+        party.setName(organization.getTradingName());
+        party.setRole(role);
+        return party;
+    }
+
+    private static AppliedCustomerBillingRate acbr(String id, Product product, BigDecimal amount, BigDecimal tax) {
+        ProductRef productRef = new ProductRef();
+        productRef.setId(product.getId());
+
+        AppliedBillingTaxRate appliedTax = new AppliedBillingTaxRate();
+        appliedTax.setTaxCategory("VAT");
+        appliedTax.setTaxRate(VAT.floatValue());
+        appliedTax.setTaxAmount(money(tax));
+
+        AppliedCustomerBillingRate acbr = new AppliedCustomerBillingRate();
+        acbr.setId(id);
+        acbr.setName("Synthetic ACBR");
+        acbr.setDate(BILL_DATE);
+        acbr.setProduct(productRef);
+        acbr.setTaxExcludedAmount(money(amount));
+        acbr.setAppliedTax(new ArrayList<>(List.of(appliedTax)));
+        acbr.setTaxIncludedAmount(money(amount.add(tax)));
+        return acbr;
+    }
+
+    private static Money money(BigDecimal value) {
+        Money money = new Money();
+        money.setUnit("EUR");
+        money.setValue(value.floatValue());
+        return money;
+    }
+
+}
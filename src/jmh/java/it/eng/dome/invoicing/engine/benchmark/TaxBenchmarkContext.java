@@ -0,0 +1,108 @@
+package it.eng.dome.invoicing.engine.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.env.MapPropertySource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.eng.dome.brokerage.api.APIPartyApis;
+import it.eng.dome.invoicing.engine.config.ExecutorConfig;
+import it.eng.dome.invoicing.engine.config.TEDBConfig;
+import it.eng.dome.invoicing.engine.rate.RateManager;
+import it.eng.dome.invoicing.engine.rate.VatRateTable;
+import it.eng.dome.invoicing.engine.service.TaxService;
+import it.eng.dome.tmforum.tmf632.v4.ApiClient;
+import it.eng.dome.tmforum.tmf632.v4.ApiException;
+import it.eng.dome.tmforum.tmf632.v4.model.Characteristic;
+import it.eng.dome.tmforum.tmf632.v4.model.Organization;
+
+/**
+ * Spring context of the tax benchmarks: TaxService, RateManager and VatRateTable as configured in the
+ * service, the TEDB clients of {@link TEDBConfig} pointing to a {@link TedbStub}, and an in-process
+ * APIPartyApis answering after a fixed latency.
+ */
+@Configuration
+@Import({ ExecutorConfig.class, TEDBConfig.class, VatRateTable.class, RateManager.class, TaxService.class })
+public class TaxBenchmarkContext {
+
+    @Value("${benchmark.latency-ms:0}")
+    private long latencyMs;
+
+    @Bean
+    public APIPartyApis apiPartyApis() {
+        return new PartyApisStub(latencyMs);
+    }
+
+    @Bean
+    public MeterRegistry meterRegistry() {
+        return new SimpleMeterRegistry();
+    }
+
+    /**
+     * Starts a context on a TEDB stub.
+     *
+     * @param latencyMs the latency of each TMForum and TEDB call
+     * @param vatRateTable whether the local VAT rates are used before TEDB
+     */
+    public static AnnotationConfigApplicationContext start(TedbStub tedb, long latencyMs, boolean vatRateTable) {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", Map.of(
+                "benchmark.latency-ms", latencyMs,
+                "tedb.url", tedb.getUrl(),
+                "vat-rate-table.enabled", vatRateTable,
+                // every organization of the stub has a country
+                "rate-manager.enable-country-guesser", false)));
+        context.register(TaxBenchmarkContext.class);
+        context.refresh();
+        return context;
+    }
+
+    static void pause(long latencyMs) {
+        if (latencyMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(latencyMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Returns the organizations of SamplePayloads, with the country encoded in their id.
+     */
+    private static class PartyApisStub extends APIPartyApis {
+
+        private final long latencyMs;
+
+        PartyApisStub(long latencyMs) {
+            super(new ApiClient());
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public Organization getOrganization(String id, String fields) throws ApiException {
+            pause(this.latencyMs);
+            Characteristic country = new Characteristic();
+            country.setName("country");
+            country.setValue(SamplePayloads.countryOf(id));
+
+            Organization organization = new Organization();
+            organization.setId(id);
+            organization.setName(id);
+            organization.setTradingName(id);
+            organization.setPartyCharacteristic(new ArrayList<>(List.of(country)));
+            return organization;
+        }
+
+    }
+
+}
@@ -0,0 +1,124 @@
+package it.eng.dome.invoicing.engine.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import it.eng.dome.brokerage.model.Invoice;
+import it.eng.dome.invoicing.engine.service.TaxService;
+import it.eng.dome.tmforum.tmf622.v4.model.ProductOrder;
+
+/**
+ * Throughput of the two entry points of the billing scheduler, with the TMForum and TEDB calls served
+ * by in-process stubs (see {@link TaxBenchmarkContext}):
+ * <ul>
+ * <li><code>applyTaxesToInvoices</code>: <code>applyTaxes(List&lt;Invoice&gt;)</code> on copies of the bundled sample;</li>
+ * <li><code>applyTaxesToOrder</code>: <code>applyTaxes(ProductOrder)</code> on an order of 10 items.</li>
+ * </ul>
+ * They bill the same organizations at every invocation, so only the first one retrieves their country
+ * from the party stub. Their <code>Cold</code> variants bill new organizations at every invocation, as
+ * on the first run of the scheduler: the payloads are built by the {@link ColdParties} state before each
+ * invocation, outside of the measurement, which only the cold variants pay for. TEDB is reached only for
+ * the rates the VAT rate table doesn't know, and its responses are cached as in the service.
+ * <p>
+ * Run with <code>mvn -Pjmh test-compile exec:exec -Djmh.args="TaxServiceBenchmark -prof gc"</code> to also
+ * report the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TaxServiceBenchmark {
+
+    // latency of each TMForum and TEDB call
+    @Param({ "0", "20" })
+    public long latencyMs;
+
+    @Param({ "10", "500" })
+    public int invoices;
+
+    // distinct organizations billing the invoices
+    @Param({ "10" })
+    public int parties;
+
+    @Param({ "true" })
+    public boolean vatRateTable;
+
+    private TedbStub tedb;
+    private AnnotationConfigApplicationContext context;
+    private TaxService taxService;
+
+    private List<Invoice> payload;
+    private ProductOrder order;
+
+    /**
+     * Payloads billing organizations never seen before, rebuilt before each invocation.
+     */
+    @State(Scope.Benchmark)
+    public static class ColdParties {
+
+        // generation 0 is billed by the warm benchmarks
+        private int generation;
+        private List<Invoice> payload;
+        private ProductOrder order;
+
+        @Setup(Level.Invocation)
+        public void newParties(TaxServiceBenchmark benchmark) {
+            this.generation++;
+            this.payload = SamplePayloads.invoices(benchmark.invoices, benchmark.parties, this.generation);
+            this.order = SamplePayloads.order(this.generation % benchmark.parties, this.generation, 10);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.tedb = new TedbStub(this.latencyMs);
+        this.context = TaxBenchmarkContext.start(this.tedb, this.latencyMs, this.vatRateTable);
+        this.taxService = this.context.getBean(TaxService.class);
+        this.payload = SamplePayloads.invoices(this.invoices, this.parties, 0);
+        this.order = SamplePayloads.order(0, 0, 10);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+        this.tedb.close();
+    }
+
+    @Benchmark
+    public List<Invoice> applyTaxesToInvoices() throws Exception {
+        return this.taxService.applyTaxes(this.payload);
+    }
+
+    @Benchmark
+    public ProductOrder applyTaxesToOrder() throws Exception {
+        return this.taxService.applyTaxes(this.order);
+    }
+
+    @Benchmark
+    public List<Invoice> applyTaxesToInvoicesCold(ColdParties cold) throws Exception {
+        return this.taxService.applyTaxes(cold.payload);
+    }
+
+    @Benchmark
+    public ProductOrder applyTaxesToOrderCold(ColdParties cold) throws Exception {
+        return this.taxService.applyTaxes(cold.order);
+    }
+
+}
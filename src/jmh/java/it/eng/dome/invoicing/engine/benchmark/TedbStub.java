@@ -0,0 +1,126 @@
+package it.eng.dome.invoicing.engine.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server answering the three TEDB calls of {@link it.eng.dome.invoicing.tedb.TEDBClient}
+ * (configurations, simple search and tax rate) after a fixed latency, so that the real TEDB clients,
+ * and their caches, run without reaching ec.europa.eu.
+ * <p>
+ * It knows the VAT standard rates of the countries in {@link #RATES}, whatever the date.
+ */
+public class TedbStub implements AutoCloseable {
+
+    // country code => VAT standard rate, as TEDB formats it
+    public static final Map<String, String> RATES = Map.of("IT", "22 %", "DE", "19 %", "FR", "20 %", "ES", "21 %");
+
+    private static final Gson gson = new Gson();
+
+    private static final Pattern MEMBER_STATE = Pattern.compile("\"selectedMemberStates\":\\[(\\d+)\\]");
+    private static final Pattern TAX_ID = Pattern.compile("taxId=VAT-(\\d+)");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMs;
+
+    // TEDB id => country code
+    private final Map<Integer, String> countries = new LinkedHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    public TedbStub(long latencyMs) throws IOException {
+        this.latencyMs = latencyMs;
+        int id = 1;
+        for (String countryCode : RATES.keySet()) {
+            this.countries.put(id++, countryCode);
+        }
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/configurations", exchange -> this.reply(exchange, this.configurations()));
+        this.server.createContext("/simpleSearch", exchange -> this.reply(exchange, this.search(read(exchange))));
+        this.server.createContext("/tax/rate", exchange -> this.reply(exchange, this.rate(exchange.getRequestURI().getQuery())));
+        this.executor = Executors.newCachedThreadPool();
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    /**
+     * @return the URL to configure as <code>tedb.url</code>
+     */
+    public String getUrl() {
+        return "http://" + this.server.getAddress().getHostString() + ":" + this.server.getAddress().getPort();
+    }
+
+    /**
+     * @return the number of requests served so far
+     */
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    private Object configurations() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Map.Entry<Integer, String> country : this.countries.entrySet()) {
+            list.add(Map.of("id", country.getKey(), "defaultCountryCode", country.getValue()));
+        }
+        return Map.of("countries", list);
+    }
+
+    private Object search(String body) {
+        Matcher matcher = MEMBER_STATE.matcher(body);
+        if (!matcher.find()) {
+            return Map.of("result", List.of());
+        }
+        return Map.of("result", List.of(Map.of("taxId", "VAT-" + matcher.group(1), "versionDate", "2024/01/01")));
+    }
+
+    private Object rate(String query) {
+        Matcher matcher = TAX_ID.matcher(query != null ? query : "");
+        String countryCode = matcher.find() ? this.countries.get(Integer.valueOf(matcher.group(1))) : null;
+        if (countryCode == null) {
+            return Map.of();
+        }
+        return Map.of("vatRateStructure", Map.of("standardRate", Map.of("rate", Map.of("value", RATES.get(countryCode)))));
+    }
+
+    private void reply(HttpExchange exchange, Object body) throws IOException {
+        this.requests.incrementAndGet();
+        TaxBenchmarkContext.pause(this.latencyMs);
+        byte[] json = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, json.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(json);
+        }
+    }
+
+    private static String read(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
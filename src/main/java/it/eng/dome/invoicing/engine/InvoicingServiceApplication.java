@@ -2,8 +2,10 @@ package it.eng.dome.invoicing.engine;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 
+@EnableScheduling
 @SpringBootApplication(scanBasePackages={"it.eng.dome.invoicing.engine", "it.eng.dome.invoicing.tedb"})
 public class InvoicingServiceApplication {
 
@@ -0,0 +1,52 @@
+package it.eng.dome.invoicing.engine.config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+
+@Configuration
+public class ExecutorConfig {
+
+	private final Logger logger = LoggerFactory.getLogger(ExecutorConfig.class);
+
+	// max number of concurrent TMF calls issued while assembling BOMs
+	@Value("${bom-service.fetch-threads:16}")
+	private int fetchThreads;
+
+	// max number of export jobs running at the same time
+	@Value("${export-jobs.threads:2}")
+	private int exportThreads;
+
+	// max number of export jobs waiting for a thread
+	@Value("${export-jobs.queue-size:10}")
+	private int exportQueueSize;
+
+	@Bean(name = "tmfExecutor", destroyMethod = "shutdown")
+	public ExecutorService tmfExecutor() {
+		logger.info("Initializing of TMF fetch executor with {} threads", fetchThreads);
+
+		return Executors.newFixedThreadPool(fetchThreads, new CustomizableThreadFactory("tmf-fetch-"));
+	}
+
+	/**
+	 * Runs the export jobs; jobs submitted while the queue is full are rejected.
+	 */
+	@Bean(name = "exportExecutor", destroyMethod = "shutdownNow")
+	public ExecutorService exportExecutor() {
+		logger.info("Initializing of export job executor with {} threads and a queue of {} jobs", exportThreads, exportQueueSize);
+
+		return new ThreadPoolExecutor(exportThreads, exportThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(exportQueueSize), new CustomizableThreadFactory("export-job-"));
+	}
+
+}
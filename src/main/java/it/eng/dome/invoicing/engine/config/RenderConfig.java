@@ -0,0 +1,60 @@
+package it.eng.dome.invoicing.engine.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import it.eng.dome.invoicing.engine.metrics.PipelineMetrics;
+import it.eng.dome.invoicing.engine.service.render.Html2Pdf;
+import it.eng.dome.invoicing.engine.service.render.ParallelRenderer;
+
+
+@Configuration
+public class RenderConfig {
+
+	private final Logger logger = LoggerFactory.getLogger(RenderConfig.class);
+
+	// max number of PDF documents rendered at the same time (0 = number of CPUs)
+	@Value("${render.pdf.max-concurrency:0}")
+	private int pdfMaxConcurrency;
+
+	// number of invoices rendered in parallel by bulk exports (0 = number of CPUs)
+	@Value("${render.parallelism:0}")
+	private int parallelism;
+
+	@Bean
+	public Html2Pdf html2Pdf(PipelineMetrics metrics) {
+		int maxConcurrency = orCpus(pdfMaxConcurrency);
+		logger.info("Initializing of PDF renderer with max {} concurrent renders", maxConcurrency);
+
+		Html2Pdf.warmUp();
+		return new Html2Pdf(maxConcurrency, metrics);
+	}
+
+	@Bean(name = "renderExecutor", destroyMethod = "shutdown")
+	public ExecutorService renderExecutor() {
+		int threads = orCpus(parallelism);
+		logger.info("Initializing of render pool with parallelism {}", threads);
+
+		// render tasks block on TMF calls and on the PDF renderer: plain threads, not a ForkJoinPool
+		return Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("render-"));
+	}
+
+	@Bean
+	public ParallelRenderer parallelRenderer(@Qualifier("renderExecutor") ExecutorService renderExecutor) {
+		// keep each worker busy while the oldest invoice is written out
+		return new ParallelRenderer(renderExecutor, 2 * orCpus(parallelism));
+	}
+
+	private static int orCpus(int value) {
+		return value > 0 ? value : Runtime.getRuntime().availableProcessors();
+	}
+
+}
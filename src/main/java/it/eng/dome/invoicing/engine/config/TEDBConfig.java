@@ -0,0 +1,81 @@
+package it.eng.dome.invoicing.engine.config;
+
+import java.io.File;
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import it.eng.dome.invoicing.tedb.TEDBCachedClient;
+import it.eng.dome.invoicing.tedb.TEDBCachedClient.CacheSettings;
+import it.eng.dome.invoicing.tedb.TEDBClient;
+
+
+@Configuration
+public class TEDBConfig {
+
+	private final Logger logger = LoggerFactory.getLogger(TEDBConfig.class);
+
+	@Value("${tedb.url:" + TEDBClient.DEFAULT_URL + "}")
+	private String url;
+
+	// connect timeout in seconds
+	@Value("${tedb.connect-timeout:10}")
+	private int connectTimeout;
+
+	// request timeout in seconds
+	@Value("${tedb.request-timeout:30}")
+	private int requestTimeout;
+
+	// directory of the persistent disk tier of the TEDB caches (empty = heap only)
+	@Value("${tedb.cache.disk-path:}")
+	private String cacheDiskPath;
+
+	// max size of each TEDB cache on disk, in MB
+	@Value("${tedb.cache.disk-size-mb:10}")
+	private long cacheDiskSizeMB;
+
+	// max number of entries on heap and time to live of each TEDB cache
+	@Value("${tedb.cache.config.size:10}")
+	private int configCacheSize;
+
+	@Value("${tedb.cache.config.ttl:P5D}")
+	private Duration configCacheTtl;
+
+	@Value("${tedb.cache.search-result.size:100}")
+	private int searchResultCacheSize;
+
+	@Value("${tedb.cache.search-result.ttl:P1D}")
+	private Duration searchResultCacheTtl;
+
+	@Value("${tedb.cache.tax-rate.size:100}")
+	private int taxRateCacheSize;
+
+	@Value("${tedb.cache.tax-rate.ttl:P1D}")
+	private Duration taxRateCacheTtl;
+
+	// uncached client, used by the health checks
+	@Bean
+	public TEDBClient tedbClient() {
+		logger.info("Initializing of TEDBClient: {}", url);
+
+		return new TEDBClient(url, Duration.ofSeconds(connectTimeout), Duration.ofSeconds(requestTimeout));
+	}
+
+	// closed on shutdown, so that the disk tier (if any) is reused at the next start
+	@Bean(destroyMethod = "close")
+	public TEDBClient tedbCachedClient() {
+		logger.info("Initializing of TEDBCachedClient: {}", url);
+
+		File diskPath = cacheDiskPath.isBlank() ? null : new File(cacheDiskPath);
+		return new TEDBCachedClient(url, Duration.ofSeconds(connectTimeout), Duration.ofSeconds(requestTimeout),
+				diskPath, cacheDiskSizeMB,
+				new CacheSettings(configCacheSize, configCacheTtl),
+				new CacheSettings(searchResultCacheSize, searchResultCacheTtl),
+				new CacheSettings(taxRateCacheSize, taxRateCacheTtl));
+	}
+
+}
@@ -0,0 +1,107 @@
+package it.eng.dome.invoicing.engine.controller;
+
+import it.eng.dome.invoicing.engine.model.ExportJob;
+import it.eng.dome.invoicing.engine.service.ExportJobService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.*;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.concurrent.RejectedExecutionException;
+
+@RestController
+@RequestMapping("/invoicing")
+@Tag(name = "Export Jobs Controller", description = "Export the invoices in the background and download the ZIP when ready")
+public class ExportJobController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportJobController.class);
+
+    private static final MediaType APPLICATION_ZIP = MediaType.parseMediaType("application/zip");
+
+    @Autowired
+    ExportJobService exportJobService;
+
+    /**
+     * Queues an export with the same query as <code>GET /invoicing/invoices</code>.
+     * The job is returned with its URL in the Location header.
+     */
+    @PostMapping("exports")
+    public ResponseEntity<?> submit(
+            @RequestParam(name = "sellerId", required = false) String sellerId,
+            @RequestParam(name = "buyerId", required = false) String buyerId,
+            @RequestParam(name = "format", required = false, defaultValue = "peppol") String format,
+            @RequestParam(name = "fromDate", required = false) OffsetDateTime fromDate,
+            @RequestParam(name = "toDate", required = false) OffsetDateTime toDate) {
+        try {
+            ExportJob job = exportJobService.submit(format, buyerId, sellerId, fromDate, toDate);
+            return ResponseEntity
+                    .accepted()
+                    .location(ServletUriComponentsBuilder.fromCurrentRequestUri()
+                            .replaceQuery(null)
+                            .path("/{id}")
+                            .buildAndExpand(job.getId())
+                            .toUri())
+                    .body(job);
+        } catch (IllegalArgumentException e) {
+            String msg = "BAD REQUEST: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(msg.getBytes(StandardCharsets.UTF_8));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Export job rejected for buyer: {}, seller: {}: too many jobs queued", buyerId, sellerId);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .build();
+        }
+    }
+
+    @GetMapping("exports/{jobId}")
+    public ResponseEntity<ExportJob> getJob(@PathVariable String jobId) {
+        ExportJob job = exportJobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate")
+                .body(job);
+    }
+
+    /**
+     * Downloads the archive of a completed job: 409 while the job is queued, running or failed.
+     */
+    @GetMapping("exports/{jobId}/archive")
+    public ResponseEntity<?> getArchive(@PathVariable String jobId) {
+        ExportJob job = exportJobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (job.getStatus() != ExportJob.Status.COMPLETED) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(job);
+        }
+        Path archive = exportJobService.getArchive(job);
+        if (!Files.exists(archive)) {
+            return ResponseEntity.notFound().build();
+        }
+        logger.info("Returning ZIP of export job {}: {} ({} bytes)", jobId, job.getArchiveName(), job.getArchiveSize());
+
+        return ResponseEntity.ok()
+                .contentType(APPLICATION_ZIP)
+                .contentLength(job.getArchiveSize())
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment()
+                                .filename(job.getArchiveName())
+                                .build().toString())
+                .header("Content-Transfer-Encoding", "binary")
+                .header("X-Content-Type-Options", "nosniff")
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate")
+                .body(new FileSystemResource(archive));
+    }
+}
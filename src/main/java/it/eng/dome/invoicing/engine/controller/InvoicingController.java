@@ -2,6 +2,7 @@ package it.eng.dome.invoicing.engine.controller;
 
 import it.eng.dome.invoicing.engine.exception.ExternalServiceException;
 import it.eng.dome.invoicing.engine.exception.PeppolValidationException;
+import it.eng.dome.invoicing.engine.model.InvoiceArchive;
 import it.eng.dome.invoicing.engine.service.InvoicingService;
 import it.eng.dome.invoicing.engine.service.render.Envelope;
 import it.eng.dome.invoicing.engine.service.utils.NamingUtils;
@@ -13,13 +14,21 @@ import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
+import java.util.concurrent.Callable;
 
 @RestController
 @RequestMapping("/invoicing")
@@ -53,6 +62,38 @@ public class InvoicingController {
                 .body(resource);
     }
 
+    /**
+     * Helper method to build a streaming ZIP response.
+     * The archive is written straight to the servlet output stream while invoices are rendered, and closed
+     * when the request completes, also if it is never written, e.g. if the client disconnects first.
+     */
+    private ResponseEntity<StreamingResponseBody> buildZipResponse(InvoiceArchive archive) {
+        try {
+            HttpServletRequest request = ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes()).getRequest();
+            WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(archive, new CallableProcessingInterceptor() {
+                @Override
+                public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                    archive.close();
+                }
+            });
+        } catch (RuntimeException e) {
+            archive.close();
+            throw e;
+        }
+        StreamingResponseBody body = archive::writeTo;
+
+        return ResponseEntity.ok()
+                .contentType(APPLICATION_ZIP)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment()
+                                .filename(archive.getName())
+                                .build().toString())
+                .header("Content-Transfer-Encoding", "binary")
+                .header("X-Content-Type-Options", "nosniff")
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate")
+                .body(body);
+    }
+
     @GetMapping("invoices/{billId}")
     public ResponseEntity<?> getInvoice(@PathVariable String billId,
             @RequestParam(name = "format", required = false, defaultValue = "peppol") String format) {
@@ -105,27 +146,21 @@ public class InvoicingController {
                 }
 
                 case "xml-html": {
-                    Envelope<String> xmlEnvelope = invoicingService.getPeppolXml(billId);
-                    String baseName = NamingUtils.sanitizeFilename(xmlEnvelope.getName());
+                    Envelope<byte[]> zip = invoicingService.getInvoiceXmlAndHtmlFormats(billId);
+                    String fileName = NamingUtils.sanitizeFilename(zip.getName()) + "-xml-html.zip";
 
-                    byte[] zipBytes = invoicingService.getInvoiceXmlAndHtmlFormats(billId);
-                    String fileName = baseName + "-xml-html.zip";
+                    logger.info("Returning xml-html ZIP for billId {}: {} bytes", billId, zip.getContent().length);
 
-                    logger.info("Returning xml-html ZIP for billId {}: {} bytes", billId, zipBytes.length);
-
-                    return buildZipResponse(zipBytes, fileName);
+                    return buildZipResponse(zip.getContent(), fileName);
                 }
 
                 case "all": {
-                    Envelope<String> xmlEnvelope = invoicingService.getPeppolXml(billId);
-                    String baseName = NamingUtils.sanitizeFilename(xmlEnvelope.getName());
-
-                    byte[] zipBytes = invoicingService.getInvoiceAllFormats(billId);
-                    String fileName = baseName + "-all.zip";
+                    Envelope<byte[]> zip = invoicingService.getInvoiceAllFormats(billId);
+                    String fileName = NamingUtils.sanitizeFilename(zip.getName()) + "-all.zip";
 
-                    logger.info("Returning all formats ZIP for billId {}: {} bytes", billId, zipBytes.length);
+                    logger.info("Returning all formats ZIP for billId {}: {} bytes", billId, zip.getContent().length);
 
-                    return buildZipResponse(zipBytes, fileName);
+                    return buildZipResponse(zip.getContent(), fileName);
                 }
 
                 default: {
@@ -164,49 +199,32 @@ public class InvoicingController {
             @RequestParam(name = "toDate", required = false) OffsetDateTime toDate) {
         try {
             String fmt = (format == null || format.isBlank()) ? "peppol" : format.toLowerCase().trim();
-            byte[] zipBytes;
-            String fileName;
+            InvoiceArchive archive;
 
             switch (fmt) {
                 case "peppol":
                 case "xml":
                 case "peppol-xml": {
-                    zipBytes = invoicingService.getInvoicesXml(buyerId, sellerId, fromDate, toDate);
-                    var xmls = invoicingService.getPeppolsXml(buyerId, sellerId, fromDate, toDate);
-                    String baseName = NamingUtils.sanitizeFilename(
-                            NamingUtils.extractFileNameFromEnvelopes(xmls));
-                    fileName = baseName + "-xml.zip";
-                    logger.info("Returning XML ZIP: {} bytes", zipBytes.length);
+                    archive = invoicingService.getInvoicesXml(buyerId, sellerId, fromDate, toDate);
+                    logger.info("Returning XML ZIP: {}", archive.getName());
                     break;
                 }
 
                 case "html": {
-                    zipBytes = invoicingService.getInvoicesHtml(buyerId, sellerId, fromDate, toDate);
-                    var htmls = invoicingService.getPeppolsHTML(buyerId, sellerId, fromDate, toDate);
-                    String baseName = NamingUtils.sanitizeFilename(
-                            NamingUtils.extractFileNameFromEnvelopes(htmls));
-                    fileName = baseName + "-html.zip";
-                    logger.info("Returning HTML ZIP: {} bytes", zipBytes.length);
+                    archive = invoicingService.getInvoicesHtml(buyerId, sellerId, fromDate, toDate);
+                    logger.info("Returning HTML ZIP: {}", archive.getName());
                     break;
                 }
 
                 case "pdf": {
-                    zipBytes = invoicingService.getInvoicesPdf(buyerId, sellerId, fromDate, toDate);
-                    var pdfs = invoicingService.getPeppolsPdf(buyerId, sellerId, fromDate, toDate);
-                    String baseName = NamingUtils.sanitizeFilename(
-                            NamingUtils.extractFileNameFromEnvelopes(pdfs));
-                    fileName = baseName + "-pdf.zip";
-                    logger.info("Returning PDF ZIP: {} bytes", zipBytes.length);
+                    archive = invoicingService.getInvoicesPdf(buyerId, sellerId, fromDate, toDate);
+                    logger.info("Returning PDF ZIP: {}", archive.getName());
                     break;
                 }
 
                 case "all": {
-                    zipBytes = invoicingService.getInvoicesAll(buyerId, sellerId, fromDate, toDate);
-                    var pdfs = invoicingService.getPeppolsPdf(buyerId, sellerId, fromDate, toDate);
-                    String baseName = NamingUtils.sanitizeFilename(
-                            NamingUtils.extractFileNameFromEnvelopes(pdfs));
-                    fileName = baseName + "-all.zip";
-                    logger.info("Returning all formats ZIP: {} bytes", zipBytes.length);
+                    archive = invoicingService.getInvoicesAll(buyerId, sellerId, fromDate, toDate);
+                    logger.info("Returning all formats ZIP: {}", archive.getName());
                     break;
                 }
 
@@ -218,7 +236,7 @@ public class InvoicingController {
                 }
             }
 
-            return buildZipResponse(zipBytes, fileName);
+            return buildZipResponse(archive);
 
         } catch (ExternalServiceException e) {
             logger.error("External service error for invoices {}-{}: {}", buyerId, sellerId, e.getMessage(), e);
@@ -0,0 +1,164 @@
+package it.eng.dome.invoicing.engine.metrics;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Meters of the invoice pipeline, to tell the time spent waiting for TMForum from the time spent rendering:
+ * <ul>
+ * <li><code>invoicing.tmf.requests</code>: timer of the TMForum calls issued to build the BOMs, by <code>api</code>;</li>
+ * <li><code>invoicing.render.stage</code>: timer of each <code>stage</code> of an invoice ({@link #BOM}, {@link #BOM_TO_PEPPOL},
+ * {@link #VALIDATION}, {@link #XML}, {@link #XSLT}, {@link #PDF}, {@link #ZIP}); the {@link #PDF} stage does not include the
+ * wait for a free PDF renderer;</li>
+ * <li><code>invoicing.invoices</code>: counter of the invoices served, by <code>format</code> and <code>result</code>
+ * (rendered or failed);</li>
+ * <li><code>invoicing.payload.size</code>: summary of the size in bytes of the documents produced, by <code>format</code>.</li>
+ * </ul>
+ * Timers are tagged with the <code>outcome</code> of the call, success or error.
+ * <p>
+ * The same TMForum requests are also timed by the API clients (<code>invoicing.tmf.client.requests</code>, see
+ * <code>TmfClientMetrics</code>), which cover every caller by endpoint and HTTP status: <code>invoicing.tmf.requests</code>
+ * only covers the BOM assembly, by API, and includes the deserialization of the responses, so that it can be
+ * compared with the render stages of the same invoices.
+ */
+@Component
+public class PipelineMetrics {
+
+    // render stages
+    public static final String BOM = "bom";
+    public static final String BOM_TO_PEPPOL = "bom2peppol";
+    public static final String VALIDATION = "validation";
+    public static final String XML = "xml";
+    public static final String XSLT = "xslt";
+    public static final String PDF = "pdf";
+    public static final String ZIP = "zip";
+
+    // TMForum APIs
+    public static final String TMF_CUSTOMER_BILL = "tmf678-customer-bill";
+    public static final String TMF_APPLIED_CUSTOMER_BILLING_RATE = "tmf678-applied-customer-billing-rate";
+    public static final String TMF_PRODUCT = "tmf637-product";
+    public static final String TMF_PRODUCT_OFFERING = "tmf620-product-offering";
+    public static final String TMF_ORGANIZATION = "tmf632-organization";
+    public static final String TMF_BILLING_ACCOUNT = "tmf666-billing-account";
+
+    /**
+     * Records nothing: for pipelines built outside of Spring, e.g. by the benchmarks.
+     */
+    public static final PipelineMetrics NONE = new PipelineMetrics(new CompositeMeterRegistry());
+
+    /**
+     * A call to time, throwing the same exceptions as the code it wraps.
+     */
+    @FunctionalInterface
+    public interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    private final MeterRegistry registry;
+
+    public PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Times a call to a TMForum API.
+     *
+     * @param api the API, e.g. {@link #TMF_CUSTOMER_BILL}
+     */
+    public <T, E extends Exception> T timeTmf(String api, Call<T, E> call) throws E {
+        return this.time(Timer.builder("invoicing.tmf.requests")
+                .description("Calls to the TMForum APIs to build the BOMs (BOM assembly only)")
+                .tag("api", api), call);
+    }
+
+    /**
+     * Times a stage of an invoice.
+     *
+     * @param stage the stage, e.g. {@link #XSLT}
+     */
+    public <T, E extends Exception> T timeStage(String stage, Call<T, E> call) throws E {
+        return this.time(Timer.builder("invoicing.render.stage")
+                .description("Stages of the invoices")
+                .tag("stage", stage), call);
+    }
+
+    /**
+     * Counts an invoice served in a format as rendered, or as failed if the call throws.
+     *
+     * @param format the format asked for: xml, html, pdf or all
+     */
+    public <T, E extends Exception> T countInvoice(String format, Call<T, E> call) throws E {
+        boolean rendered = false;
+        try {
+            T out = call.call();
+            rendered = true;
+            return out;
+        } finally {
+            Counter.builder("invoicing.invoices")
+                    .description("Invoices served")
+                    .tag("format", format)
+                    .tag("result", rendered ? "rendered" : "failed")
+                    .register(this.registry)
+                    .increment();
+        }
+    }
+
+    /**
+     * Records the size of a document.
+     *
+     * @param format xml, html, pdf or zip
+     * @param bytes the size in bytes
+     */
+    public void recordSize(String format, long bytes) {
+        DistributionSummary.builder("invoicing.payload.size")
+                .description("Size of the documents produced")
+                .baseUnit("bytes")
+                .tag("format", format)
+                .register(this.registry)
+                .record(bytes);
+    }
+
+    /**
+     * Same as {@link #recordSize(String, long)}, for a text encoded in UTF-8.
+     */
+    public void recordSize(String format, CharSequence text) {
+        this.recordSize(format, utf8Length(text));
+    }
+
+    private <T, E extends Exception> T time(Timer.Builder builder, Call<T, E> call) throws E {
+        Timer.Sample sample = Timer.start(this.registry);
+        boolean success = false;
+        try {
+            T out = call.call();
+            success = true;
+            return out;
+        } finally {
+            sample.stop(builder.tag("outcome", success ? "success" : "error").register(this.registry));
+        }
+    }
+
+    // the size of the text in UTF-8, without encoding it
+    private static long utf8Length(CharSequence text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+}
@@ -0,0 +1,154 @@
+package it.eng.dome.invoicing.engine.model;
+
+import java.time.OffsetDateTime;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * An asynchronous bulk invoice export: the query of the export, its status and its progress.
+ * <p>
+ * The job is updated by the thread running it and read by the requests polling it, so its
+ * mutable state is volatile.
+ */
+public class ExportJob {
+
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    private final String id;
+    private final String format;
+    private final String buyerId;
+    private final String sellerId;
+    private final OffsetDateTime fromDate;
+    private final OffsetDateTime toDate;
+    private final OffsetDateTime createdAt;
+
+    private volatile Status status = Status.QUEUED;
+    // null until the archive is written: bills are retrieved while it is written
+    private volatile Integer total;
+    private volatile int rendered;
+    private volatile int failed;
+    private volatile String archiveName;
+    private volatile Long archiveSize;
+    private volatile String error;
+    private volatile OffsetDateTime startedAt;
+    private volatile OffsetDateTime finishedAt;
+
+    public ExportJob(String id, String format, String buyerId, String sellerId, OffsetDateTime fromDate,
+            OffsetDateTime toDate) {
+        this.id = id;
+        this.format = format;
+        this.buyerId = buyerId;
+        this.sellerId = sellerId;
+        this.fromDate = fromDate;
+        this.toDate = toDate;
+        this.createdAt = OffsetDateTime.now();
+    }
+
+    public void start() {
+        this.startedAt = OffsetDateTime.now();
+        this.status = Status.RUNNING;
+    }
+
+    /**
+     * @param archiveName the name of the archive, as downloaded
+     */
+    public void rendering(String archiveName) {
+        this.archiveName = archiveName;
+    }
+
+    public void setRendered(int rendered) {
+        this.rendered = rendered;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public void complete(long archiveSize) {
+        this.total = this.rendered + this.failed;
+        this.archiveSize = archiveSize;
+        this.finishedAt = OffsetDateTime.now();
+        this.status = Status.COMPLETED;
+    }
+
+    public void fail(String error) {
+        this.error = error;
+        this.finishedAt = OffsetDateTime.now();
+        this.status = Status.FAILED;
+    }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return this.status == Status.COMPLETED || this.status == Status.FAILED;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public Status getStatus() {
+        return this.status;
+    }
+
+    public String getFormat() {
+        return this.format;
+    }
+
+    public String getBuyerId() {
+        return this.buyerId;
+    }
+
+    public String getSellerId() {
+        return this.sellerId;
+    }
+
+    public OffsetDateTime getFromDate() {
+        return this.fromDate;
+    }
+
+    public OffsetDateTime getToDate() {
+        return this.toDate;
+    }
+
+    public Integer getTotal() {
+        return this.total;
+    }
+
+    public int getRendered() {
+        return this.rendered;
+    }
+
+    /**
+     * @return the number of invoices left out of the archive because they could not be rendered
+     */
+    public int getFailed() {
+        return this.failed;
+    }
+
+    public String getArchiveName() {
+        return this.archiveName;
+    }
+
+    public Long getArchiveSize() {
+        return this.archiveSize;
+    }
+
+    public String getError() {
+        return this.error;
+    }
+
+    public OffsetDateTime getCreatedAt() {
+        return this.createdAt;
+    }
+
+    public OffsetDateTime getStartedAt() {
+        return this.startedAt;
+    }
+
+    public OffsetDateTime getFinishedAt() {
+        return this.finishedAt;
+    }
+
+}
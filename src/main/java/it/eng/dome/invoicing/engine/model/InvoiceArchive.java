@@ -0,0 +1,108 @@
+package it.eng.dome.invoicing.engine.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The result of a bulk invoice export: the name of the archive (already sanitized,
+ * extension included) and the writer producing the ZIP archive.
+ * <p>
+ * Invoices are retrieved and rendered while the archive is written, so neither the archive
+ * nor the list of invoices is ever held in memory as a whole, and the first entries reach
+ * the client before the last invoice is retrieved: the number of invoices is only known
+ * once the archive is written, through the {@link Progress} reported.
+ * <p>
+ * Since the archive is sent while it is written, its failures can't change the response status:
+ * invoices that cannot be rendered are left out and listed in an <code>errors.txt</code> entry,
+ * while any other failure aborts the archive before its central directory is written, so that a
+ * truncated archive can't be opened as if it were complete.
+ * <p>
+ * The invoices are retrieved as soon as the archive is built: it must be closed, whether written or not, to
+ * release them.
+ */
+public class InvoiceArchive implements AutoCloseable {
+
+    /**
+     * Writes the ZIP archive to a stream, reporting each invoice written. The stream is not closed.
+     */
+    @FunctionalInterface
+    public interface Writer {
+        void writeTo(OutputStream out, Progress progress) throws IOException;
+    }
+
+    /**
+     * Notified after each invoice is written, or left out of the archive because it could not be
+     * rendered, e.g. to report the progress of an export job.
+     */
+    @FunctionalInterface
+    public interface Progress {
+        void written(int invoices);
+
+        default void failed(int invoices) {
+        }
+    }
+
+    private final String name;
+
+    private final Writer writer;
+
+    // releases the invoices not written
+    private final Runnable onClose;
+
+    private boolean writing;
+    private boolean closed;
+
+    public InvoiceArchive(String name, Writer writer) {
+        this(name, writer, () -> {});
+    }
+
+    public InvoiceArchive(String name, Writer writer, Runnable onClose) {
+        this.name = name;
+        this.writer = writer;
+        this.onClose = onClose;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        this.writeTo(out, invoices -> {});
+    }
+
+    /**
+     * Writes the archive, once, and closes it.
+     */
+    public void writeTo(OutputStream out, Progress progress) throws IOException {
+        synchronized (this) {
+            if (this.closed || this.writing) {
+                throw new IOException("Archive already written: " + this.name);
+            }
+            this.writing = true;
+        }
+        try {
+            this.writer.writeTo(out, progress);
+        } finally {
+            synchronized (this) {
+                this.writing = false;
+            }
+            this.close();
+        }
+    }
+
+    /**
+     * Releases the invoices of the archive, if not written yet. While the archive is written, e.g. if the
+     * request it is sent to times out, it is closed only once written.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (this.closed || this.writing) {
+                return;
+            }
+            this.closed = true;
+        }
+        this.onClose.run();
+    }
+
+}
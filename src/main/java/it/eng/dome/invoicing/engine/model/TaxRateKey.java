@@ -0,0 +1,52 @@
+package it.eng.dome.invoicing.engine.model;
+
+import java.util.Calendar;
+import java.util.Objects;
+
+/**
+ * Identifies the VAT rate applied to a bill: the buyer, the seller and the day of the VAT date.
+ */
+public class TaxRateKey {
+
+	private final String buyerId;
+	private final String sellerId;
+	private final int year;
+	private final int month;
+	private final int day;
+
+	public TaxRateKey(String buyerId, String sellerId, Calendar date) {
+		this.buyerId = buyerId;
+		this.sellerId = sellerId;
+		this.year = date.get(Calendar.YEAR);
+		this.month = date.get(Calendar.MONTH);
+		this.day = date.get(Calendar.DAY_OF_MONTH);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof TaxRateKey)) return false;
+		TaxRateKey key = (TaxRateKey) o;
+		return year == key.year && month == key.month && day == key.day &&
+				Objects.equals(buyerId, key.buyerId) &&
+				Objects.equals(sellerId, key.sellerId);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(buyerId, sellerId, year, month, day);
+	}
+
+	public String getBuyerId() {
+		return buyerId;
+	}
+
+	public String getSellerId() {
+		return sellerId;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TaxRateKey[buyer=%s, seller=%s, date=%d-%02d-%02d]", buyerId, sellerId, year, month + 1, day);
+	}
+}
@@ -2,23 +2,38 @@ package it.eng.dome.invoicing.engine.rate;
 
 import java.io.IOException;
 import java.text.ParseException;
+import java.time.Duration;
 import java.util.Calendar;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.expiry.ExpiryPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import it.eng.dome.brokerage.api.APIPartyApis;
 import it.eng.dome.brokerage.exception.BadRelatedPartyException;
-import it.eng.dome.invoicing.tedb.TEDBCachedClient;
 import it.eng.dome.invoicing.tedb.TEDBClient;
 import it.eng.dome.invoicing.engine.util.countryguesser.CountryGuesser;
 import it.eng.dome.invoicing.engine.util.countryguesser.GuessResult;
 import it.eng.dome.tmforum.tmf622.v4.model.RelatedParty;
 import it.eng.dome.tmforum.tmf632.v4.model.Characteristic;
 import it.eng.dome.tmforum.tmf632.v4.model.Organization;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @Component(value = "RateManager")
 public class RateManager {
@@ -26,8 +41,11 @@ public class RateManager {
     // A logger for this class
     private final Logger logger = LoggerFactory.getLogger(RateManager.class);
 
-    // static so that we can reuse the cache across RateManager instances
-    private static final TEDBClient tedbclient = new TEDBCachedClient();
+    // cached TEDB client, shared with the other RateManager instances
+    private final TEDBClient tedbclient;
+
+    // local VAT standard rates, TEDB is called only for the rates it doesn't know
+    private final VatRateTable vatRateTable;
 
     // A CountryGuesser to be used when a country is not available in the organization
     private CountryGuesser countryGuesser;
@@ -38,8 +56,45 @@ public class RateManager {
     @Value("${rate-manager.enable-country-guesser:true}")
     private boolean ENABLE_COUNTRY_GUESSER;
 
-    public RateManager(APIPartyApis apiPartyApis) {
+    // max number of organizations whose country is cached
+    @Value("${rate-manager.country-cache.size:1000}")
+    private int countryCacheSize;
+
+    // how long the country of an organization is cached, in minutes
+    @Value("${rate-manager.country-cache.ttl:60}")
+    private int countryCacheTtl;
+
+    // how long an organization without a known country is cached, in minutes, so that a fix is picked up soon
+    @Value("${rate-manager.country-cache.unknown-ttl:1}")
+    private int unknownCountryCacheTtl;
+
+    // cached value of the organizations without a known country (Ehcache does not store nulls)
+    private static final String UNKNOWN_COUNTRY = "";
+
+    private CacheManager cacheManager;
+
+    // organization id => country code
+    private Cache<String, String> countryCache;
+
+    // organization id => country being retrieved, shared by the concurrent lookups of the organization
+    private final Map<String, CompletableFuture<String>> countryLookups = new ConcurrentHashMap<>();
+
+    private final Counter countryCacheHits;
+    private final Counter countryCacheMisses;
+
+    public RateManager(APIPartyApis apiPartyApis, @Qualifier("tedbCachedClient") TEDBClient tedbclient, VatRateTable vatRateTable,
+            MeterRegistry meterRegistry) {
         this.apiPartyApis = apiPartyApis;
+        this.tedbclient = tedbclient;
+        this.vatRateTable = vatRateTable;
+        this.countryCacheHits = Counter.builder("invoicing.party.country.cache")
+                .description("Lookups of the country of an organization")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.countryCacheMisses = Counter.builder("invoicing.party.country.cache")
+                .description("Lookups of the country of an organization")
+                .tag("result", "miss")
+                .register(meterRegistry);
     }
 
     /**
@@ -51,6 +106,14 @@ public class RateManager {
      */
     @PostConstruct
     private void init() {
+        this.cacheManager = CacheManagerBuilder.newCacheManagerBuilder().build(true);
+        this.countryCache = this.cacheManager.createCache("countryCache", CacheConfigurationBuilder
+                .newCacheConfigurationBuilder(String.class, String.class, ResourcePoolsBuilder.heap(this.countryCacheSize))
+                .withExpiry(new CountryExpiry(Duration.ofMinutes(this.countryCacheTtl), Duration.ofMinutes(this.unknownCountryCacheTtl)))
+                .build());
+        logger.info("Caching the country of up to {} organizations for {} minutes ({} minutes if unknown)", this.countryCacheSize,
+                this.countryCacheTtl, this.unknownCountryCacheTtl);
+
         if (this.ENABLE_COUNTRY_GUESSER) {
             try {
                 logger.info("Instantiating a CountryGuesser");
@@ -63,17 +126,111 @@ public class RateManager {
         }
     }
     
+    // expires the unknown countries sooner than the known ones
+    private static class CountryExpiry implements ExpiryPolicy<String, String> {
+
+        private final Duration ttl;
+        private final Duration unknownTtl;
+
+        CountryExpiry(Duration ttl, Duration unknownTtl) {
+            this.ttl = ttl;
+            this.unknownTtl = unknownTtl;
+        }
+
+        @Override
+        public Duration getExpiryForCreation(String partyId, String countryCode) {
+            return UNKNOWN_COUNTRY.equals(countryCode) ? this.unknownTtl : this.ttl;
+        }
+
+        @Override
+        public Duration getExpiryForAccess(String partyId, Supplier<? extends String> countryCode) {
+            // unchanged
+            return null;
+        }
+
+        @Override
+        public Duration getExpiryForUpdate(String partyId, Supplier<? extends String> oldCountryCode, String countryCode) {
+            return this.getExpiryForCreation(partyId, countryCode);
+        }
+    }
+
+    @PreDestroy
+    private void close() {
+        this.cacheManager.close();
+    }
+
     public Number getVATRateFor(RelatedParty buyer, RelatedParty seller, Calendar date) throws Exception {
-        String sellerCountryCode = this.getCountryCodeFor(seller);
-        String buyerCountryCode = this.getCountryCodeFor(buyer);
-        return this.getVATRateFor(sellerCountryCode, buyerCountryCode, date);
+        return this.getVATRateFor(buyer.getId(), seller.getId(), date);
+    }
+
+    /**
+     * Same as {@link #getVATRateFor(RelatedParty, RelatedParty, Calendar)}, for parties of any TMForum API.
+     *
+     * @param buyerId the id of the buyer organization
+     * @param sellerId the id of the seller organization
+     */
+    public Number getVATRateFor(String buyerId, String sellerId, Calendar date) throws Exception {
+        String sellerCountryCode = this.getCountryCodeFor(sellerId);
+        String buyerCountryCode = this.getCountryCodeFor(buyerId);
+        return this.getVATRateBetween(sellerCountryCode, buyerCountryCode, date);
+    }
+
+    private String getCountryCodeFor(String partyId) throws Exception {
+        if (partyId == null) {
+            return this.resolveCountryCodeFor(partyId);
+        }
+        String countryCode = this.countryCache.get(partyId);
+        if (countryCode != null) {
+            this.countryCacheHits.increment();
+            return UNKNOWN_COUNTRY.equals(countryCode) ? null : countryCode;
+        }
+        CompletableFuture<String> lookup = new CompletableFuture<>();
+        CompletableFuture<String> inFlight = this.countryLookups.putIfAbsent(partyId, lookup);
+        if (inFlight != null) {
+            // retrieved by another thread: wait for it instead of asking TMForum again
+            this.countryCacheHits.increment();
+            return this.join(inFlight);
+        }
+        try {
+            // cached after the miss above, by a lookup completed in the meantime
+            countryCode = this.countryCache.get(partyId);
+            if (countryCode == null) {
+                this.countryCacheMisses.increment();
+                countryCode = this.resolveCountryCodeFor(partyId);
+                this.countryCache.put(partyId, countryCode != null ? countryCode : UNKNOWN_COUNTRY);
+            } else {
+                this.countryCacheHits.increment();
+            }
+            countryCode = UNKNOWN_COUNTRY.equals(countryCode) ? null : countryCode;
+            lookup.complete(countryCode);
+            return countryCode;
+        } catch (Throwable e) {
+            lookup.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.countryLookups.remove(partyId, lookup);
+        }
+    }
+
+    private String join(CompletableFuture<String> lookup) throws Exception {
+        try {
+            return lookup.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
     }
 
-    private String getCountryCodeFor(RelatedParty party) throws Exception {
-        Organization org = apiPartyApis.getOrganization(party.getId(), null);
+    private String resolveCountryCodeFor(String partyId) throws Exception {
+        Organization org = apiPartyApis.getOrganization(partyId, null);
         if(org == null) {
-        	logger.warn("Cannot found the organization: {}", party.getId());
-        	throw new BadRelatedPartyException(String.format("Error! The organization with id %s doesn't exist!", party.getId()));
+        	logger.warn("Cannot found the organization: {}", partyId);
+        	throw new BadRelatedPartyException(String.format("Error! The organization with id %s doesn't exist!", partyId));
         }
         String countryCode = this.getCountryFromCharacteristic(org);
         if(countryCode == null) {
@@ -98,7 +255,7 @@ public class RateManager {
         return null;
     }
 
-    private Number getVATRateFor(String sellerCountry, String buyerCountry, Calendar date)
+    private Number getVATRateBetween(String sellerCountry, String buyerCountry, Calendar date)
         throws IOException, InterruptedException, IllegalArgumentException, ParseException {
 
         // check parameters
@@ -117,8 +274,12 @@ public class RateManager {
             logger.info(msg);
             return 0f;
         }
-        // same countries => ask the VAT service for the VAT for the SELLER
-        Number rate = tedbclient.getVATRateInCountryAtDate(sellerCountry, date);
+        // same countries => look up the VAT for the SELLER, asking the VAT service if unknown
+        Number rate = vatRateTable.getStandardRate(sellerCountry, date);
+        if (rate == null) {
+            logger.debug("VAT rate of {} not found in the local table, asking TEDB", sellerCountry);
+            rate = tedbclient.getVATRateInCountryAtDate(sellerCountry, date);
+        }
         String msg = String.format("Applicable VAT in transactions between %s (seller) and %s (buyer) is %s%%", sellerCountry, buyerCountry, (rate.doubleValue()*100));
         logger.info(msg);
         return rate;
@@ -0,0 +1,279 @@
+package it.eng.dome.invoicing.engine.rate;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.gson.Gson;
+
+import it.eng.dome.invoicing.tedb.TEDBClient;
+import it.eng.dome.invoicing.tedb.model.Country;
+import it.eng.dome.invoicing.tedb.model.SearchResult;
+import it.eng.dome.invoicing.tedb.model.TaxVersion;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * In-memory table of the EU VAT standard rates, by country and date.
+ * <p>
+ * The table is loaded at startup from a snapshot bundled with the service (<code>vat/standard-rates.json</code>),
+ * so rates are available without reaching TEDB, and is refreshed periodically from TEDB.
+ * <p>
+ * The dates after the last interval of a country are answered with its rate, so the table answers without TEDB
+ * right after a restart, or when TEDB can't be reached; TEDB is only used to confirm or correct the rates, by the
+ * refresh, which first runs shortly after startup. When TEDB reports a different rate, a new interval is added from
+ * the date of the TEDB version of the tax. If that date can't be read, the rates of the country are only known up
+ * to the day they were last checked (the <code>asOf</code> date of the snapshot, then the day of the last refresh
+ * confirming them): later dates are asked to TEDB until a refresh settles the change.
+ * <p>
+ * The table is replaced as a whole on every change, so lookups never lock.
+ */
+@Component
+public class VatRateTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(VatRateTable.class);
+
+    private static final String SNAPSHOT = "vat/standard-rates.json";
+
+    // snapshot file format
+    private static class Snapshot {
+        String asOf;
+        Map<String, List<Interval>> rates;
+        Map<String, String> aliases;
+    }
+
+    private static class Interval {
+        String from;
+        String rate;
+    }
+
+    // dates of the TEDB tax versions that can be read
+    private static final List<DateTimeFormatter> VERSION_DATE_FORMATS = List.of(DateTimeFormatter.ISO_LOCAL_DATE,
+            DateTimeFormatter.ofPattern("yyyy/M/d"), DateTimeFormatter.ofPattern("d/M/yyyy"));
+
+    // immutable rates, the last day they were checked and the countries whose rate changed on an unknown date,
+    // replaced together
+    private record Table(Map<String, NavigableMap<LocalDate, BigDecimal>> rates, Map<String, LocalDate> checkedOn,
+            Set<String> unsettled) {
+    }
+
+    // country code => (first day => rate), country code => last day checked, country codes
+    private volatile Table table = new Table(Collections.emptyMap(), Collections.emptyMap(), Collections.emptySet());
+
+    private Map<String, String> aliases = Collections.emptyMap();
+
+    private final TEDBClient tedbClient;
+
+    @Value("${vat-rate-table.enabled:true}")
+    private boolean enabled;
+
+    public VatRateTable(@Qualifier("tedbClient") TEDBClient tedbClient) {
+        this.tedbClient = tedbClient;
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!this.enabled) {
+            logger.info("VatRateTable is DISABLED.");
+            return;
+        }
+        try (InputStream in = VatRateTable.class.getClassLoader().getResourceAsStream(SNAPSHOT)) {
+            if (in == null) {
+                logger.warn("VAT rates snapshot {} not found. Rates will be retrieved from TEDB.", SNAPSHOT);
+                return;
+            }
+            this.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+            logger.info("Loaded the VAT standard rates of {} countries from {}", this.table.rates().size(), SNAPSHOT);
+        } catch (Exception e) {
+            logger.warn("Unable to load the VAT rates snapshot {}: {}. Rates will be retrieved from TEDB.", SNAPSHOT, e.getMessage());
+        }
+    }
+
+    void load(Reader reader) {
+        Snapshot snapshot = new Gson().fromJson(reader, Snapshot.class);
+        if (snapshot.asOf == null) {
+            throw new IllegalArgumentException("The VAT rates snapshot has no asOf date");
+        }
+        LocalDate asOf = LocalDate.parse(snapshot.asOf);
+        Map<String, NavigableMap<LocalDate, BigDecimal>> rates = new HashMap<>();
+        Map<String, LocalDate> checkedOn = new HashMap<>();
+        for (Map.Entry<String, List<Interval>> country : snapshot.rates.entrySet()) {
+            NavigableMap<LocalDate, BigDecimal> intervals = new TreeMap<>();
+            for (Interval interval : country.getValue()) {
+                intervals.put(LocalDate.parse(interval.from), new BigDecimal(interval.rate));
+            }
+            String code = country.getKey().toUpperCase(Locale.ROOT);
+            rates.put(code, Collections.unmodifiableNavigableMap(intervals));
+            checkedOn.put(code, asOf);
+        }
+        this.aliases = snapshot.aliases != null ? Map.copyOf(snapshot.aliases) : Collections.emptyMap();
+        this.table = new Table(Collections.unmodifiableMap(rates), Collections.unmodifiableMap(checkedOn), Collections.emptySet());
+    }
+
+    /**
+     * Returns the VAT standard rate of a country at a date.
+     *
+     * @param countryCode the ISO code of the country, e.g. IT
+     * @param date the date
+     * @return the rate as a fraction (e.g. 0.22), or null if the table doesn't know the rate, e.g. for a date
+     *         after a change of unknown date
+     */
+    public BigDecimal getStandardRate(String countryCode, LocalDate date) {
+        String code = this.normalize(countryCode);
+        Table table = this.table;
+        NavigableMap<LocalDate, BigDecimal> intervals = table.rates().get(code);
+        if (intervals == null || (table.unsettled().contains(code) && date.isAfter(table.checkedOn().get(code)))) {
+            return null;
+        }
+        Map.Entry<LocalDate, BigDecimal> interval = intervals.floorEntry(date);
+        return interval != null ? interval.getValue() : null;
+    }
+
+    /**
+     * Same as {@link #getStandardRate(String, LocalDate)}, reading the date from a Calendar
+     * as TEDB searches do.
+     */
+    public BigDecimal getStandardRate(String countryCode, Calendar date) {
+        LocalDate day = LocalDate.of(date.get(Calendar.YEAR), date.get(Calendar.MONTH) + 1, date.get(Calendar.DAY_OF_MONTH));
+        return this.getStandardRate(countryCode, day);
+    }
+
+    /**
+     * Checks the rate of today of each country against TEDB.
+     */
+    @Scheduled(initialDelayString = "${vat-rate-table.refresh-initial-delay:PT30S}", fixedDelayString = "${vat-rate-table.refresh-interval:PT24H}")
+    public void refresh() {
+        if (!this.enabled) {
+            return;
+        }
+        this.refresh(LocalDate.now());
+    }
+
+    void refresh(LocalDate today) {
+        Calendar situationOn = GregorianCalendar.from(today.atStartOfDay(ZoneId.systemDefault()));
+        Table current = this.table;
+        Map<String, NavigableMap<LocalDate, BigDecimal>> rates = new HashMap<>(current.rates());
+        Map<String, LocalDate> checkedOn = new HashMap<>(current.checkedOn());
+        Set<String> unsettled = new HashSet<>(current.unsettled());
+        Map<String, String> countryIds;
+        try {
+            countryIds = this.getCountryIds();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("VAT rates refresh interrupted");
+            return;
+        } catch (Exception e) {
+            logger.warn("Unable to refresh the VAT standard rates from TEDB: {}", e.getMessage());
+            return;
+        }
+        int changes = 0;
+        for (String countryCode : current.rates().keySet()) {
+            try {
+                TaxVersion version = this.getVatVersion(countryIds, countryCode, situationOn);
+                BigDecimal rate = new BigDecimal(this.tedbClient.getTaxRate(version.taxId, version.versionDate)
+                        .getVatRateStructure().getStandardRate().getRate().getValue().toString());
+                NavigableMap<LocalDate, BigDecimal> intervals = new TreeMap<>(current.rates().get(countryCode));
+                Map.Entry<LocalDate, BigDecimal> known = intervals.floorEntry(today);
+                if (known != null && known.getValue().compareTo(rate) == 0) {
+                    checkedOn.put(countryCode, today);
+                    unsettled.remove(countryCode);
+                    continue;
+                }
+                LocalDate since = parseVersionDate(version.versionDate);
+                if (since == null || since.isAfter(today)) {
+                    unsettled.add(countryCode);
+                    logger.warn("VAT standard rate of {} changed from {} to {} on an unknown date ({}): asking TEDB for the dates after {}",
+                            countryCode, known != null ? known.getValue() : null, rate, version.versionDate, current.checkedOn().get(countryCode));
+                    continue;
+                }
+                logger.info("VAT standard rate of {} changed from {} to {} on {}", countryCode, known != null ? known.getValue() : null, rate, since);
+                // the version replaces whatever the table had from its date on
+                intervals.tailMap(since, true).clear();
+                intervals.put(since, rate);
+                rates.put(countryCode, Collections.unmodifiableNavigableMap(intervals));
+                checkedOn.put(countryCode, today);
+                unsettled.remove(countryCode);
+                changes++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("VAT rates refresh interrupted");
+                return;
+            } catch (Exception e) {
+                logger.warn("Unable to refresh the VAT standard rate of {} from TEDB: {}", countryCode, e.getMessage());
+            }
+        }
+        this.table = new Table(Collections.unmodifiableMap(rates), Collections.unmodifiableMap(checkedOn), Collections.unmodifiableSet(unsettled));
+        logger.info("Refreshed the VAT standard rates from TEDB: {} changes", changes);
+    }
+
+    // ISO country code (upper case) => TEDB country id, from the configurations fetched once per refresh
+    private Map<String, String> getCountryIds() throws Exception {
+        Map<String, String> countryIds = new HashMap<>();
+        for (Country country : this.tedbClient.getConfigurations().getCountries()) {
+            if (country.getDefaultCountryCOde() != null) {
+                countryIds.put(country.getDefaultCountryCOde().toUpperCase(Locale.ROOT), country.getId());
+            }
+        }
+        return countryIds;
+    }
+
+    private TaxVersion getVatVersion(Map<String, String> countryIds, String countryCode, Calendar situationOn) throws Exception {
+        String countryId = countryIds.get(countryCode);
+        if (countryId == null) {
+            throw new IllegalArgumentException("TEDB doesn't know about " + countryCode);
+        }
+        SearchResult result = this.tedbClient.searchTaxes(countryId, "VAT", situationOn);
+        if (result == null || result.getTaxVersions() == null || result.getTaxVersions().isEmpty()) {
+            throw new IllegalArgumentException("No VAT tax found for " + countryCode);
+        }
+        return result.getTaxVersions().get(0);
+    }
+
+    static LocalDate parseVersionDate(String versionDate) {
+        if (versionDate == null) {
+            return null;
+        }
+        String date = versionDate.trim();
+        // date-times are read as their date
+        if (date.length() > 10 && date.charAt(10) == 'T') {
+            date = date.substring(0, 10);
+        }
+        for (DateTimeFormatter format : VERSION_DATE_FORMATS) {
+            try {
+                return LocalDate.parse(date, format);
+            } catch (DateTimeParseException e) {
+                // next format
+            }
+        }
+        return null;
+    }
+
+    private String normalize(String countryCode) {
+        String code = countryCode.trim().toUpperCase(Locale.ROOT);
+        return this.aliases.getOrDefault(code, code);
+    }
+
+}
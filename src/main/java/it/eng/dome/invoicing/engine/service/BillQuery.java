@@ -0,0 +1,114 @@
+package it.eng.dome.invoicing.engine.service;
+
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+
+import it.eng.dome.tmforum.tmf678.v4.model.CustomerBill;
+import it.eng.dome.tmforum.tmf678.v4.model.RelatedParty;
+
+/**
+ * The criteria of a bulk retrieval of CustomerBills: buyer, seller and bill date range, each optional.
+ * <p>
+ * The TMForum API accepts a single <code>relatedParty.id</code> filter, so when both the buyer and the
+ * seller are given only one of them can be filtered by the server (see {@link #getFilter(String)});
+ * {@link #matches(CustomerBill)} checks both parties on the bills returned, with their roles, in one
+ * pass over their related parties.
+ */
+public class BillQuery {
+
+    public static final String BUYER = "Buyer";
+    public static final String SELLER = "Seller";
+
+    private final String buyerId;
+    private final String sellerId;
+    private final OffsetDateTime fromDate;
+    private final OffsetDateTime toDate;
+
+    public BillQuery(String buyerId, String sellerId, OffsetDateTime fromDate, OffsetDateTime toDate) {
+        this.buyerId = buyerId;
+        this.sellerId = sellerId;
+        this.fromDate = fromDate;
+        this.toDate = toDate;
+    }
+
+    public String getBuyerId() {
+        return this.buyerId;
+    }
+
+    public String getSellerId() {
+        return this.sellerId;
+    }
+
+    public OffsetDateTime getFromDate() {
+        return this.fromDate;
+    }
+
+    public OffsetDateTime getToDate() {
+        return this.toDate;
+    }
+
+    /**
+     * @return the id of the party with the given role, or null if the query has no such party
+     */
+    public String getPartyId(String role) {
+        return BUYER.equals(role) ? this.buyerId : SELLER.equals(role) ? this.sellerId : null;
+    }
+
+    /**
+     * Builds the server-side filter: the bill date range and, if a role is given, the id of the party with that role.
+     * <p>
+     * The role itself is not filtered by the server: TMForum does not require <code>relatedParty.id</code> and
+     * <code>relatedParty.role</code> to match the same party, and roles are compared case-sensitively there,
+     * so the role is left to {@link #matches(CustomerBill)}.
+     *
+     * @param role {@link #BUYER}, {@link #SELLER} or null to filter by date only
+     */
+    public Map<String, String> getFilter(String role) {
+        Map<String, String> filter = new HashMap<>();
+        String partyId = this.getPartyId(role);
+        if (partyId != null) {
+            filter.put("relatedParty.id", partyId);
+        }
+        if (this.fromDate != null) filter.put("billDate>= ", this.fromDate.truncatedTo(ChronoUnit.SECONDS).toString());
+        if (this.toDate != null) filter.put("billDate<= ", this.toDate.truncatedTo(ChronoUnit.SECONDS).toString());
+        return filter;
+    }
+
+    /**
+     * Checks that the bill has the buyer and the seller of the query, if any.
+     */
+    public boolean matches(CustomerBill cb) {
+        boolean buyerFound = this.buyerId == null;
+        boolean sellerFound = this.sellerId == null;
+        if (buyerFound && sellerFound) {
+            return true;
+        }
+        if (cb.getRelatedParty() == null) {
+            return false;
+        }
+        for (RelatedParty rp : cb.getRelatedParty()) {
+            String id = rp.getId();
+            if (id == null) {
+                continue;
+            }
+            if (!buyerFound && id.equals(this.buyerId) && BUYER.equalsIgnoreCase(rp.getRole())) {
+                buyerFound = true;
+            } else if (!sellerFound && id.equals(this.sellerId) && SELLER.equalsIgnoreCase(rp.getRole())) {
+                sellerFound = true;
+            }
+            if (buyerFound && sellerFound) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BillQuery[buyerId=%s, sellerId=%s, fromDate=%s, toDate=%s]",
+                this.buyerId, this.sellerId, this.fromDate, this.toDate);
+    }
+
+}
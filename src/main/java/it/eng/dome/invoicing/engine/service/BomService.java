@@ -2,26 +2,35 @@ package it.eng.dome.invoicing.engine.service;
 
 import it.eng.dome.brokerage.api.*;
 import it.eng.dome.invoicing.engine.exception.ExternalServiceException;
+import it.eng.dome.invoicing.engine.metrics.PipelineMetrics;
 import it.eng.dome.invoicing.engine.model.InvoiceBom;
 import it.eng.dome.invoicing.engine.service.render.Envelope;
+import it.eng.dome.invoicing.engine.service.utils.PageIterator;
 import it.eng.dome.tmforum.tmf620.v4.model.ProductOffering;
 import it.eng.dome.tmforum.tmf632.v4.model.Organization;
 import it.eng.dome.tmforum.tmf637.v4.model.Product;
 import it.eng.dome.tmforum.tmf666.v4.model.BillingAccount;
-import it.eng.dome.tmforum.tmf678.v4.ApiException;
 import it.eng.dome.tmforum.tmf678.v4.model.AppliedCustomerBillingRate;
 import it.eng.dome.tmforum.tmf678.v4.model.CustomerBill;
 import it.eng.dome.tmforum.tmf678.v4.model.RelatedParty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.OffsetDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
 @Service
 public class BomService {
@@ -35,168 +44,279 @@ public class BomService {
     private final ProductCatalogManagementApis productCatalogManagementAPI;
     private final AccountManagementApis accountManagementAPI;
 
-	public BomService(APIPartyApis partyAPI, ProductInventoryApis productInventoryAPI, CustomerBillApis customerBillAPI, AppliedCustomerBillRateApis appliedCustomerBillingRateAPI, ProductCatalogManagementApis productCatalogManagementAPI, AccountManagementApis accountManagementAPI) {
+    // bounded pool running the independent TMF lookups of a BOM concurrently
+    private final ExecutorService tmfExecutor;
+
+    private final PipelineMetrics metrics;
+
+    // number of CustomerBills and ACBRs requested per page
+    @Value("${bom-service.page-size:100}")
+    private int pageSize = 100;
+
+    /**
+     * The CustomerBills matching a query, retrieved page by page while they are iterated, prefetching the
+     * next page, so only the current pages of bills are held in memory however many bills match.
+     * <p>
+     * Their BOMs are meant to be built with {@link #getCache()}, shared by all the bills of the query.
+     * Failures of the TMForum API are thrown by {@link #hasNext()} as a {@link CompletionException} wrapping
+     * an {@link ExternalServiceException}. Must be closed, to stop prefetching, once the bills are no longer needed.
+     * Instances are not thread-safe.
+     */
+    public class Bills implements Iterator<CustomerBill>, AutoCloseable {
+
+        private final BillQuery query;
+        private final PageIterator<CustomerBill> pages;
+        // shared by all the BOMs of the query: sellers, buyers and offerings repeat across bills
+        private final TmfEntityCache cache = new TmfEntityCache();
+
+        // the next matching bill, null if not looked for yet
+        private CustomerBill next;
+        private int found;
+        private int matched;
+        private boolean closed;
+
+        Bills(BillQuery query, PageIterator<CustomerBill> pages) {
+            this.query = query;
+            this.pages = pages;
+        }
+
+        public TmfEntityCache getCache() {
+            return this.cache;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (this.next == null && !this.closed && this.pages.hasNext()) {
+                    CustomerBill cb = this.pages.next();
+                    this.found++;
+                    // the server filtered one party at most: check both, with their roles
+                    if (this.query.matches(cb)) {
+                        this.next = cb;
+                        this.matched++;
+                    }
+                }
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                logger.error("Error retrieving Customer Bills: {}", cause.getMessage());
+                throw new CompletionException(new ExternalServiceException(cause.getMessage(), cause));
+            }
+            return this.next != null;
+        }
+
+        @Override
+        public CustomerBill next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            CustomerBill cb = this.next;
+            this.next = null;
+            return cb;
+        }
+
+        @Override
+        public void close() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.pages.cancel();
+            logger.debug("Found {} Customer Bills for {}, {} matching, using {}", this.found, this.query, this.matched, this.cache);
+        }
+    }
+
+	public BomService(APIPartyApis partyAPI, ProductInventoryApis productInventoryAPI, CustomerBillApis customerBillAPI, AppliedCustomerBillRateApis appliedCustomerBillingRateAPI, ProductCatalogManagementApis productCatalogManagementAPI, AccountManagementApis accountManagementAPI, @Qualifier("tmfExecutor") ExecutorService tmfExecutor, PipelineMetrics metrics) {
         this.partyAPI = partyAPI;
         this.productInventoryAPI = productInventoryAPI;
         this.customerBillAPI = customerBillAPI;
         this.appliedCustomerBillingRateAPI = appliedCustomerBillingRateAPI;
         this.productCatalogManagementAPI = productCatalogManagementAPI;
         this.accountManagementAPI = accountManagementAPI;
+        this.tmfExecutor = tmfExecutor;
+        this.metrics = metrics;
 	}
 
     public List<Envelope<InvoiceBom>> getBomsFor(String buyerId, String sellerId, OffsetDateTime fromDate, OffsetDateTime toDate) throws ExternalServiceException {
-    	List<Envelope<InvoiceBom>> out = new ArrayList<>();
-
-        Map<String, String> filter = new HashMap<>();
-        if (buyerId != null) filter.put("relatedParty.id", buyerId); // only one filter per relatedParty.id is allowed
-        if (sellerId != null) filter.put("relatedParty.id", sellerId); // so we need to filter manually later
-        if (fromDate != null) filter.put("billDate>= ", fromDate.truncatedTo(ChronoUnit.SECONDS).toString());
-        if (toDate != null) filter.put("billDate<= ", toDate.truncatedTo(ChronoUnit.SECONDS).toString());
-
-        try {
-            List<CustomerBill> bills = this.customerBillAPI.listCustomerBills(null, 0, 1000, filter);
-            logger.debug("Found {} Customer Bills between {} and {}", bills.size(), fromDate, toDate);
-
-            for (CustomerBill cb : bills) {
-                boolean include = true; // default: include the bill unless it fails a filter
-
-                // filter by buyerId if provided
-                if (buyerId != null) {
-                    include = false; // reset inclusion, must match buyer
-                    if (cb.getRelatedParty() != null) {
-                        for (RelatedParty rp : cb.getRelatedParty()) {
-                            if (buyerId.equals(rp.getId()) && "Buyer".equalsIgnoreCase(rp.getRole())) {
-                                include = true; // matched buyer
-                                break; // no need to continue checking other related parties
-                            }
-                        }
-                    }
-                }
-
-                // filter by sellerId if provided
-                if (include && sellerId != null) {
-                    include = false; // reset inclusion, must match seller
-                    if (cb.getRelatedParty() != null) {
-                        for (RelatedParty rp : cb.getRelatedParty()) {
-                            if (sellerId.equals(rp.getId()) && "Seller".equalsIgnoreCase(rp.getRole())) {
-                                include = true; // matched seller
-                                break; // no need to continue checking other related parties
-                            }
-                        }
-                    }
-                }
-
-                // add to output if passed all applicable filters
-                if (include) {
-                    out.add(getBomFor(cb.getId()));
-                }
+        List<Envelope<InvoiceBom>> out = new ArrayList<>();
+        try (Bills bills = this.getBillsFor(buyerId, sellerId, fromDate, toDate)) {
+            while (bills.hasNext()) {
+                out.add(this.getBomFor(bills.next(), bills.getCache()));
             }
-        } catch (ApiException e) {
-        	logger.error("Error retrieving Customer Bills: {}", e.getMessage());
-            throw new ExternalServiceException(e.getMessage(), e);
+        } catch (CompletionException e) {
+            throw unwrap(e);
         }
-
-        logger.debug("Retrieved {} BOMs for buyerId={} and sellerId={}", out.size(), buyerId, sellerId);
         return out;
     }
 
-    public Envelope<InvoiceBom> getBomFor(String customerBillId) throws ExternalServiceException {
-
-        // retrieve the customer bill...
-        InvoiceBom bom;
+    /**
+     * Starts retrieving the CustomerBills of a buyer and/or a seller, issued between two dates: see {@link Bills}.
+     *
+     * @throws ExternalServiceException if the TMForum API fails to return the first page of bills
+     */
+    public Bills getBillsFor(String buyerId, String sellerId, OffsetDateTime fromDate, OffsetDateTime toDate) throws ExternalServiceException {
+        BillQuery query = new BillQuery(buyerId, sellerId, fromDate, toDate);
         try {
-            CustomerBill cb;
-            cb = this.customerBillAPI.getCustomerBill(customerBillId, null);
-            // ...and create the bom
-            bom = new InvoiceBom(cb);
-        } catch (ApiException e) {
-        	logger.error("Error retrieving Customer Bill with id {}: {}", customerBillId, e.getMessage());
-            throw new ExternalServiceException(e.getMessage(), e);
+            return new Bills(query, this.planBills(query));
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            logger.error("Error retrieving Customer Bills: {}", cause.getMessage());
+            throw new ExternalServiceException(cause.getMessage(), cause);
         }
+    }
 
-        // FIXME: commented out, as tmf returns internal server error as of 17 nov 2025
-        // add included acbrs (if any)
-        try {
-            List<AppliedCustomerBillingRate> acbrs;
-            Map<String, String> filter = Map.of("bill.id", bom.getCustomerBill().getId());
-            acbrs = this.appliedCustomerBillingRateAPI.listAppliedCustomerBillingRates(null, 0, 1000, filter);
-            for(AppliedCustomerBillingRate acbr: acbrs) {
-                bom.add(acbr);
-            }
-        } catch (ApiException e) {
-            throw new ExternalServiceException(e.getMessage(), e);
+    /**
+     * Unwraps the failure of the TMForum API thrown while iterating over {@link Bills}.
+     */
+    public static ExternalServiceException unwrap(CompletionException e) {
+        if (e.getCause() instanceof ExternalServiceException cause) {
+            return cause;
         }
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        return new ExternalServiceException(cause.getMessage(), cause);
+    }
 
-        try {
-            // now add products (where referenced inside acbrs)
-            for(AppliedCustomerBillingRate acbr: bom.getAppliedCustomerBillingRates()) {
-                if(acbr.getProduct()!=null && acbr.getProduct().getId()!=null)
-                        bom.add(this.productInventoryAPI.getProduct(acbr.getProduct().getId(), null));
-            }
-        } catch (it.eng.dome.tmforum.tmf637.v4.ApiException e) {
-            throw new ExternalServiceException(e.getMessage(), e);
+    /*
+     * Chooses the server-side filter of a bulk retrieval. Only one relatedParty.id can be filtered by the
+     * server: with both a buyer and a seller, the first page of each is requested at the same time and the
+     * party with fewer bills is kept (if neither fits in one page, the buyer, who usually has fewer bills
+     * than a seller). The other party is checked on the bills returned.
+     */
+    private PageIterator<CustomerBill> planBills(BillQuery query) {
+        if (query.getBuyerId() == null || query.getSellerId() == null) {
+            String role = query.getBuyerId() != null ? BillQuery.BUYER : query.getSellerId() != null ? BillQuery.SELLER : null;
+            return this.listCustomerBills(query.getFilter(role));
         }
 
+        PageIterator<CustomerBill> byBuyer = this.listCustomerBills(query.getFilter(BillQuery.BUYER));
+        PageIterator<CustomerBill> bySeller = this.listCustomerBills(query.getFilter(BillQuery.SELLER));
         try {
-            // add product offerings (where referenced inside acbrs)
-            for(Product product: bom.getProducts()) {
-                if(product.getProductOffering()!=null && product.getProductOffering().getId()!=null) {
-                    ProductOffering offering;
-                        offering = this.productCatalogManagementAPI.getProductOffering(product.getProductOffering().getId(), null);
-                    bom.add(offering);
-                }
+            int buyerBills = byBuyer.remainingIfKnown();
+            int sellerBills = bySeller.remainingIfKnown();
+            boolean sellerFirst = sellerBills >= 0 && (buyerBills < 0 || sellerBills < buyerBills);
+            logger.debug("Filtering Customer Bills by {} (buyer bills: {}, seller bills: {})", sellerFirst ? "seller" : "buyer",
+                    buyerBills < 0 ? "many" : buyerBills, sellerBills < 0 ? "many" : sellerBills);
+            if (sellerFirst) {
+                byBuyer.cancel();
+                return bySeller;
             }
-        } catch (it.eng.dome.tmforum.tmf620.v4.ApiException e) {
-            throw new ExternalServiceException(e.getMessage(), e);
+            bySeller.cancel();
+            return byBuyer;
+        } catch (RuntimeException e) {
+            byBuyer.cancel();
+            bySeller.cancel();
+            throw e;
         }
+    }
+
+    private PageIterator<CustomerBill> listCustomerBills(Map<String, String> filter) {
+        return new PageIterator<>((offset, limit) -> this.metrics.timeTmf(PipelineMetrics.TMF_CUSTOMER_BILL,
+                () -> this.customerBillAPI.listCustomerBills(null, offset, limit, filter)), this.pageSize, this.tmfExecutor);
+    }
 
+    public CustomerBill getCustomerBill(String customerBillId) throws ExternalServiceException {
         try {
-            // add organizations (as referenced within the CB)
-            for(RelatedParty party: bom.getCustomerBill().getRelatedParty()) {
-                if(party.getRole()!=null && party.getId()!=null) {
-                    Organization organization;
-                        organization = this.partyAPI.getOrganization(party.getId(), null);
-                    bom.add(organization, party.getRole());
-                }
-            }
-        } catch (it.eng.dome.tmforum.tmf632.v4.ApiException e) {
+            return this.metrics.timeTmf(PipelineMetrics.TMF_CUSTOMER_BILL, () -> this.customerBillAPI.getCustomerBill(customerBillId, null));
+        } catch (Exception e) {
+            logger.error("Error retrieving Customer Bill with id {}: {}", customerBillId, e.getMessage());
             throw new ExternalServiceException(e.getMessage(), e);
         }
+    }
 
-        try {
-            // add billing account (for each organization referenced within the CB)
-            Map<String, String> sellerFilter = new HashMap<>();
-            String sellerId = bom.getOrganizationWithRole("Seller").getId();
-            sellerFilter.put("relatedParty.id", sellerId);
-            List<BillingAccount> sellerBAs = this.accountManagementAPI.listBillingAccounts(null, 0, 1000, sellerFilter);
-            bom.add(sellerBAs.get(0), "Seller");
-            if (sellerBAs.isEmpty()) {
-                logger.warn("No Billing Account found for Seller with id {}", sellerId);
-            } else {
-                // FIXME: take the first one only for now
-                bom.add(sellerBAs.get(0), "Seller");
+    public Envelope<InvoiceBom> getBomFor(String customerBillId) throws ExternalServiceException {
+        return this.getBomFor(customerBillId, new TmfEntityCache());
+    }
+
+    /**
+     * Builds the BOM of a customer bill, resolving the referenced offerings, organizations
+     * and billing accounts through the given cache.
+     *
+     * @param customerBillId the id of the CustomerBill
+     * @param cache the entity cache shared by all the BOMs of the current request
+     * @return the BOM envelope
+     * @throws ExternalServiceException if any of the TMForum APIs fails
+     */
+    public Envelope<InvoiceBom> getBomFor(String customerBillId, TmfEntityCache cache) throws ExternalServiceException {
+        // the customer bill and its acbrs are independent: fetch them together
+        CompletableFuture<CustomerBill> cbFuture = this.async(PipelineMetrics.TMF_CUSTOMER_BILL, () -> this.customerBillAPI.getCustomerBill(customerBillId, null));
+        return this.getBomFor(customerBillId, cbFuture, cache);
+    }
+
+    /**
+     * Builds the BOM of a customer bill already retrieved, e.g. by a bulk retrieval.
+     */
+    public Envelope<InvoiceBom> getBomFor(CustomerBill cb, TmfEntityCache cache) throws ExternalServiceException {
+        return this.getBomFor(cb.getId(), CompletableFuture.completedFuture(cb), cache);
+    }
+
+    private Envelope<InvoiceBom> getBomFor(String customerBillId, CompletableFuture<CustomerBill> cbFuture, TmfEntityCache cache) throws ExternalServiceException {
+        return this.metrics.timeStage(PipelineMetrics.BOM, () -> this.buildBom(customerBillId, cbFuture, cache));
+    }
+
+    private Envelope<InvoiceBom> buildBom(String customerBillId, CompletableFuture<CustomerBill> cbFuture, TmfEntityCache cache) throws ExternalServiceException {
+
+        CompletableFuture<List<AppliedCustomerBillingRate>> acbrsFuture = CompletableFuture.supplyAsync(() -> this.listAppliedCustomerBillingRates(customerBillId), this.tmfExecutor);
+
+        // products (where referenced inside acbrs), each followed by its product offering
+        CompletableFuture<List<Product>> productsFuture = acbrsFuture.thenCompose(acbrs -> {
+            // not in the cache: products seldom repeat across bills, only across the acbrs of a bill
+            Map<String, CompletableFuture<Product>> byId = new HashMap<>();
+            List<CompletableFuture<Product>> products = new ArrayList<>();
+            for (AppliedCustomerBillingRate acbr : acbrs) {
+                if (acbr.getProduct() != null && acbr.getProduct().getId() != null)
+                    products.add(byId.computeIfAbsent(acbr.getProduct().getId(), this::getProduct));
             }
+            return allOf(products);
+        });
+        CompletableFuture<List<ProductOffering>> offeringsFuture = productsFuture.thenCompose(products -> {
+            List<CompletableFuture<ProductOffering>> offerings = new ArrayList<>();
+            for (Product product : products) {
+                if (product != null && product.getProductOffering() != null && product.getProductOffering().getId() != null)
+                    offerings.add(this.getProductOffering(cache, product.getProductOffering().getId()));
+            }
+            return allOf(offerings);
+        });
 
-            
-
-            Map<String, String> buyerFilter = new HashMap<>();
-            String buyerId = bom.getOrganizationWithRole("Buyer").getId();
-            buyerFilter.put("relatedParty.id", buyerId);
-            List<BillingAccount> buyerBAs = this.accountManagementAPI.listBillingAccounts(null, 0, 1000, buyerFilter);
-            bom.add(buyerBAs.get(0), "Buyer");
-            if (buyerBAs.isEmpty()) {
-                logger.warn("No Billing Account found for Buyer with id {}", buyerId);
-            } else {
-                // FIXME: take the first one only for now
-                bom.add(buyerBAs.get(0), "Buyer");
+        // organizations and billing accounts (as referenced within the CB)
+        CompletableFuture<Map<String, Organization>> organizationsFuture = cbFuture.thenCompose(cb -> {
+            Map<String, CompletableFuture<Organization>> organizations = new LinkedHashMap<>();
+            if (cb.getRelatedParty() != null) {
+                for (RelatedParty party : cb.getRelatedParty()) {
+                    if (party.getRole() != null && party.getId() != null)
+                        organizations.put(party.getRole(), this.getOrganization(cache, party.getId()));
+                }
             }
+            return allOf(new ArrayList<>(organizations.values())).thenApply(orgs -> {
+                Map<String, Organization> byRole = new LinkedHashMap<>();
+                organizations.forEach((role, org) -> byRole.put(role, org.join()));
+                return byRole;
+            });
+        });
+        CompletableFuture<List<BillingAccount>> sellerBAsFuture = cbFuture.thenCompose(cb -> this.getBillingAccounts(cache, getPartyIdWithRole(cb, "Seller")));
+        CompletableFuture<List<BillingAccount>> buyerBAsFuture = cbFuture.thenCompose(cb -> this.getBillingAccounts(cache, getPartyIdWithRole(cb, "Buyer")));
 
+        // now merge everything into the bom
+        InvoiceBom bom;
+        try {
+            bom = new InvoiceBom(this.join(cbFuture));
+        } catch (ExternalServiceException e) {
+            logger.error("Error retrieving Customer Bill with id {}: {}", customerBillId, e.getMessage());
+            throw e;
+        }
 
-           /*BillingAccount buyerBA = this.accountManagementAPI.getBillingAccount(bom.getCustomerBill().getBillingAccount().getId(), null);
-           bom.add(buyerBA, "Buyer");*/
-        } catch (it.eng.dome.tmforum.tmf666.v4.ApiException e) {
-        	logger.error("Error retrieving Billing Account: {}", e.getMessage());
-            throw new ExternalServiceException(e.getMessage(), e);
+        for (AppliedCustomerBillingRate acbr : this.join(acbrsFuture))
+            bom.add(acbr);
+        for (Product product : this.join(productsFuture))
+            bom.add(product);
+        for (ProductOffering offering : this.join(offeringsFuture))
+            bom.add(offering);
+        this.join(organizationsFuture).forEach((role, organization) -> bom.add(organization, role));
+
+        try {
+            this.addBillingAccount(bom, this.join(sellerBAsFuture), "Seller");
+            this.addBillingAccount(bom, this.join(buyerBAsFuture), "Buyer");
+        } catch (ExternalServiceException e) {
+            logger.error("Error retrieving Billing Account: {}", e.getMessage());
+            throw e;
         }
 
         // fallback
@@ -209,4 +329,97 @@ public class BomService {
         return new Envelope<>(bom, folderName, "bom");
 
     }
+
+    /*
+     * Retrieves all the ACBRs of a bill, page by page. Pages are fetched on the calling thread,
+     * which is already a fetch thread: waiting for another fetch task there could starve the pool.
+     */
+    private List<AppliedCustomerBillingRate> listAppliedCustomerBillingRates(String customerBillId) {
+        List<AppliedCustomerBillingRate> acbrs = new ArrayList<>();
+        PageIterator<AppliedCustomerBillingRate> pages = new PageIterator<>(
+                (offset, limit) -> this.metrics.timeTmf(PipelineMetrics.TMF_APPLIED_CUSTOMER_BILLING_RATE,
+                        () -> this.appliedCustomerBillingRateAPI.listAppliedCustomerBillingRates(null, offset, limit, Map.of("bill.id", customerBillId))),
+                this.pageSize);
+        pages.forEachRemaining(acbrs::add);
+        return acbrs;
+    }
+
+    private void addBillingAccount(InvoiceBom bom, List<BillingAccount> accounts, String role) {
+        if (accounts.isEmpty()) {
+            logger.warn("No Billing Account found for {} with id {}", role, bom.getOrganizationWithRole(role) != null ? bom.getOrganizationWithRole(role).getId() : null);
+        } else {
+            // FIXME: take the first one only for now
+            bom.add(accounts.get(0), role);
+        }
+    }
+
+    private static String getPartyIdWithRole(CustomerBill cb, String role) {
+        String id = null;
+        if (cb.getRelatedParty() != null) {
+            for (RelatedParty party : cb.getRelatedParty()) {
+                if (role.equals(party.getRole()) && party.getId() != null)
+                    id = party.getId();
+            }
+        }
+        return id;
+    }
+
+    /*
+     * Runs a call to a TMF API on the fetch executor, timing it. Checked exceptions raised by the TMF clients
+     * are carried through the CompletionException and unwrapped by join().
+     */
+    private <T> CompletableFuture<T> async(String api, TmfCall<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.metrics.timeTmf(api, call::call);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, this.tmfExecutor);
+    }
+
+    private <T> T join(CompletableFuture<T> future) throws ExternalServiceException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RuntimeException re)
+                throw re;
+            throw new ExternalServiceException(cause.getMessage(), cause);
+        }
+    }
+
+    private static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(v -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    @FunctionalInterface
+    private interface TmfCall<T> {
+        T call() throws Exception;
+    }
+
+    private CompletableFuture<Product> getProduct(String id) {
+        return this.async(PipelineMetrics.TMF_PRODUCT, () -> this.productInventoryAPI.getProduct(id, null));
+    }
+
+    private CompletableFuture<ProductOffering> getProductOffering(TmfEntityCache cache, String id) {
+        return cache.productOffering(id, k -> this.async(PipelineMetrics.TMF_PRODUCT_OFFERING, () -> this.productCatalogManagementAPI.getProductOffering(k, null)));
+    }
+
+    private CompletableFuture<Organization> getOrganization(TmfEntityCache cache, String id) {
+        return cache.organization(id, k -> this.async(PipelineMetrics.TMF_ORGANIZATION, () -> this.partyAPI.getOrganization(k, null)));
+    }
+
+    private CompletableFuture<List<BillingAccount>> getBillingAccounts(TmfEntityCache cache, String partyId) {
+        if (partyId == null)
+            return CompletableFuture.completedFuture(List.of());
+        return cache.billingAccounts(partyId, k -> this.async(PipelineMetrics.TMF_BILLING_ACCOUNT, () -> {
+            Map<String, String> filter = new HashMap<>();
+            filter.put("relatedParty.id", k);
+            return this.accountManagementAPI.listBillingAccounts(null, 0, 1000, filter);
+        }));
+    }
 }
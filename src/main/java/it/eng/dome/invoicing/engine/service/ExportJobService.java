@@ -0,0 +1,216 @@
+package it.eng.dome.invoicing.engine.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import it.eng.dome.invoicing.engine.exception.ExternalServiceException;
+import it.eng.dome.invoicing.engine.model.ExportJob;
+import it.eng.dome.invoicing.engine.model.InvoiceArchive;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Runs bulk invoice exports in the background, so that large archives don't have to be rendered
+ * within the timeout of an HTTP request.
+ * <p>
+ * Each job renders the archive of {@link InvoicingService} into <code>&lt;job id&gt;.zip</code> in the spool
+ * directory, reporting the invoices written so far. The spool is the {@link #SPOOL} subdirectory of the
+ * configured directory, which may hold other files. Jobs run on the bounded <code>exportExecutor</code>:
+ * when all its threads are busy and its queue is full, new jobs are rejected.
+ * Jobs are kept in memory, so they don't survive a restart: the spool directory is emptied at startup,
+ * and finished jobs are removed, with their archive, once the retention has elapsed.
+ */
+@Service
+public class ExportJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportJobService.class);
+
+    // subdirectory of export-jobs.dir (or of the temporary directory) holding the archives, and nothing else
+    static final String SPOOL = "invoicing-export-jobs";
+
+    @Autowired
+    private InvoicingService invoicingService;
+
+    @Autowired
+    @Qualifier("exportExecutor")
+    private ExecutorService exportExecutor;
+
+    @Value("${export-jobs.dir:}")
+    private String dir;
+
+    @Value("${export-jobs.retention:PT24H}")
+    private Duration retention;
+
+    private Path spool;
+
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+
+    public ExportJobService() {
+    }
+
+    // a service spooling to the given directory, e.g. for tests
+    ExportJobService(InvoicingService invoicingService, ExecutorService exportExecutor, Path dir, Duration retention) throws IOException {
+        this.invoicingService = invoicingService;
+        this.exportExecutor = exportExecutor;
+        this.dir = dir.toString();
+        this.retention = retention;
+        this.init();
+    }
+
+    @PostConstruct
+    private void init() throws IOException {
+        Path base = this.dir.isBlank() ? Paths.get(System.getProperty("java.io.tmpdir")) : Paths.get(this.dir);
+        this.spool = Files.createDirectories(base.resolve(SPOOL));
+        // archives of the jobs of a previous run, which are not known anymore
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.spool, "*.zip*")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+        logger.info("Initializing of ExportJobService in {}", this.spool);
+    }
+
+    /**
+     * Queues an export of the invoices matching the query.
+     *
+     * @param format xml (or peppol, peppol-xml), html, pdf or all
+     * @throws IllegalArgumentException if the format is not supported
+     * @throws RejectedExecutionException if too many jobs are already queued
+     */
+    public ExportJob submit(String format, String buyerId, String sellerId, OffsetDateTime fromDate,
+            OffsetDateTime toDate) {
+        String fmt = (format == null || format.isBlank()) ? "peppol" : format.toLowerCase().trim();
+        switch (fmt) {
+            case "peppol", "xml", "peppol-xml", "html", "pdf", "all":
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported output format: " + fmt);
+        }
+        ExportJob job = new ExportJob(UUID.randomUUID().toString(), fmt, buyerId, sellerId, fromDate, toDate);
+        this.jobs.put(job.getId(), job);
+        try {
+            this.exportExecutor.execute(() -> this.run(job));
+        } catch (RejectedExecutionException e) {
+            this.jobs.remove(job.getId());
+            throw e;
+        }
+        logger.info("Queued export job {} ({}) for buyer: {}, seller: {}", job.getId(), fmt, buyerId, sellerId);
+        return job;
+    }
+
+    /**
+     * @return the job, or null if unknown or expired
+     */
+    public ExportJob getJob(String id) {
+        return this.jobs.get(id);
+    }
+
+    /**
+     * @return the archive of a completed job
+     */
+    public Path getArchive(ExportJob job) {
+        return this.spool.resolve(job.getId() + ".zip");
+    }
+
+    private void run(ExportJob job) {
+        job.start();
+        Path archive = this.getArchive(job);
+        Path part = this.spool.resolve(job.getId() + ".zip.part");
+        try (InvoiceArchive invoices = this.getInvoices(job)) {
+            job.rendering(invoices.getName());
+            logger.info("Running export job {}: {}", job.getId(), invoices.getName());
+            try (OutputStream out = Files.newOutputStream(part)) {
+                invoices.writeTo(out, new InvoiceArchive.Progress() {
+                    @Override
+                    public void written(int invoices) {
+                        job.setRendered(invoices);
+                    }
+
+                    @Override
+                    public void failed(int invoices) {
+                        job.setFailed(invoices);
+                    }
+                });
+            }
+            moveAtomically(part, archive);
+            job.complete(Files.size(archive));
+            logger.info("Completed export job {}: {} invoices, {} bytes", job.getId(), job.getTotal(), job.getArchiveSize());
+        } catch (Exception e) {
+            logger.error("Export job {} failed: {}", job.getId(), e.getMessage(), e);
+            job.fail(e instanceof ExternalServiceException ? "External service error: " + e.getMessage() : e.getMessage());
+            this.delete(part);
+            this.delete(archive);
+        }
+    }
+
+    private InvoiceArchive getInvoices(ExportJob job) throws ExternalServiceException {
+        switch (job.getFormat()) {
+            case "html":
+                return this.invoicingService.getInvoicesHtml(job.getBuyerId(), job.getSellerId(), job.getFromDate(), job.getToDate());
+            case "pdf":
+                return this.invoicingService.getInvoicesPdf(job.getBuyerId(), job.getSellerId(), job.getFromDate(), job.getToDate());
+            case "all":
+                return this.invoicingService.getInvoicesAll(job.getBuyerId(), job.getSellerId(), job.getFromDate(), job.getToDate());
+            default:
+                return this.invoicingService.getInvoicesXml(job.getBuyerId(), job.getSellerId(), job.getFromDate(), job.getToDate());
+        }
+    }
+
+    /**
+     * Removes the jobs finished before the retention, and their archives.
+     */
+    @Scheduled(initialDelayString = "${export-jobs.cleanup-interval:PT1H}", fixedDelayString = "${export-jobs.cleanup-interval:PT1H}")
+    public void removeExpiredJobs() {
+        OffsetDateTime expiry = OffsetDateTime.now().minus(this.retention);
+        this.jobs.values().removeIf(job -> {
+            if (!job.isFinished() || job.getFinishedAt().isAfter(expiry)) {
+                return false;
+            }
+            logger.debug("Removing expired export job {}", job.getId());
+            this.delete(this.getArchive(job));
+            return true;
+        });
+    }
+
+    private void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Unable to delete {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static void moveAtomically(Path source, Path target) {
+        try {
+            try {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -6,6 +6,7 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 import it.eng.dome.brokerage.api.APIPartyApis;
@@ -25,6 +26,7 @@ public class HealthService extends AbstractHealthService {
 	private final static String SERVICE_NAME = "Invoicing Service";
 
 	@Autowired
+	@Qualifier("tedbClient")
 	private TEDBClient tedbClient;
 
 	private final APIPartyApis apiPartyApis;
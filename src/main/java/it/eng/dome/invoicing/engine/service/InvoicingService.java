@@ -1,89 +1,136 @@
 package it.eng.dome.invoicing.engine.service;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.zip.ZipOutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
 
 import it.eng.dome.invoicing.engine.exception.ExternalServiceException;
-import it.eng.dome.invoicing.engine.model.InvoiceBom;
-import it.eng.dome.invoicing.engine.service.render.BomToPeppol;
+import it.eng.dome.invoicing.engine.metrics.PipelineMetrics;
+import it.eng.dome.invoicing.engine.model.InvoiceArchive;
 import it.eng.dome.invoicing.engine.service.render.Envelope;
 import it.eng.dome.invoicing.engine.service.render.Html2Pdf;
-import it.eng.dome.invoicing.engine.service.render.Peppol2XML;
-import it.eng.dome.invoicing.engine.service.render.PeppolXML2Html;
+import it.eng.dome.invoicing.engine.service.render.ParallelRenderer;
+import it.eng.dome.invoicing.engine.service.render.RenderPipeline;
+import it.eng.dome.invoicing.engine.service.render.RenderPipeline.RenderedArtifacts;
+import it.eng.dome.invoicing.engine.service.store.ArtifactStore;
+import it.eng.dome.invoicing.engine.service.utils.NamingUtils;
 import it.eng.dome.invoicing.engine.service.utils.ZipUtils;
-import peppol.bis.invoice3.domain.Invoice;
+import it.eng.dome.tmforum.tmf678.v4.model.CustomerBill;
 
 /**
  * Service for handling invoices and converting them to PEPPOL formats.
  * Provides methods to retrieve single invoices, collections of invoices,
  * or ZIP archives containing XML, HTML, and PDF formats.
+ * <p>
+ * Invoices found in the {@link ArtifactStore} for the current revision of their bill are served
+ * from there, without building their BOM; the others are stored once rendered.
+ * <p>
+ * Each invoice served is counted in the {@link PipelineMetrics}, as rendered or failed, by format.
  */
 @Service
 public class InvoicingService {
 
     private static final Logger logger = LoggerFactory.getLogger(InvoicingService.class);
+
+    // entry of a bulk archive listing the invoices that failed to render
+    private static final String ERRORS_ENTRY = "errors";
     
     @Autowired
     BomService bomService;
+
+    @Autowired
+    ParallelRenderer parallelRenderer;
+
+    @Autowired
+    ArtifactStore artifactStore;
+
+    @Autowired
+    PipelineMetrics metrics;
+
+    @Autowired
+    Html2Pdf html2Pdf;
     
     public InvoicingService() {
     }
 
-    private Collection<Envelope<Invoice>> getPeppolInvoices(String buyerId, String sellerId, OffsetDateTime fromDate,
-            OffsetDateTime toDate) throws ExternalServiceException {
-        logger.debug("Fetching PEPPOL invoices for buyer: {}, seller: {}, from: {}, to: {}", 
-                     buyerId, sellerId, fromDate, toDate);
-        List<Envelope<InvoiceBom>> boms = bomService.getBomsFor(buyerId, sellerId, fromDate, toDate);
-        Collection<Envelope<Invoice>> invoices = new BomToPeppol().render(boms);
-        logger.info("Retrieved {} PEPPOL invoices for buyer: {}, seller: {}", 
-                    invoices.size(), buyerId, sellerId);
-        return invoices;
+    private RenderPipeline getRenderPipeline(String billId) throws ExternalServiceException {
+        if (!artifactStore.isEnabled()) {
+            logger.debug("Fetching BOM for billId: {}", billId);
+            return new RenderPipeline(bomService.getBomFor(billId), metrics, html2Pdf);
+        }
+        CustomerBill cb = bomService.getCustomerBill(billId);
+        return this.getRenderPipeline(cb, new TmfEntityCache());
+    }
+
+    private RenderPipeline getRenderPipeline(CustomerBill cb, TmfEntityCache cache) throws ExternalServiceException {
+        RenderedArtifacts stored = artifactStore.get(cb);
+        if (stored != null) {
+            return new RenderPipeline(stored, metrics, html2Pdf);
+        }
+        logger.debug("Fetching BOM for billId: {}", cb.getId());
+        return new RenderPipeline(bomService.getBomFor(cb, cache), metrics, html2Pdf);
     }
 
-    private Envelope<Invoice> getPeppolInvoice(String billId) throws ExternalServiceException {
-        logger.debug("Fetching PEPPOL invoice for billId: {}", billId);
-        Envelope<InvoiceBom> bom = bomService.getBomFor(billId);
-        Envelope<Invoice> invoice = new BomToPeppol().render(bom);
-        logger.info("Retrieved PEPPOL invoice for billId: {}", billId);
-        return invoice;
+    /**
+     * Renders the matching invoices up to the given stage in the render window, storing each one once rendered.
+     * Bills are retrieved page by page as the window moves forward, and their BOMs are built in the window,
+     * reading the invoices from the store where possible.
+     */
+    private <T> List<T> renderAll(String buyerId, String sellerId, OffsetDateTime fromDate, OffsetDateTime toDate, String format,
+            ParallelRenderer.Stage<T> stage) throws Exception {
+        try (BomService.Bills bills = bomService.getBillsFor(buyerId, sellerId, fromDate, toDate)) {
+            return parallelRenderer.renderAll(bills, cb -> {
+                RenderPipeline pipeline = this.getRenderPipeline(cb, bills.getCache());
+                T out = metrics.countInvoice(format, () -> stage.render(pipeline));
+                artifactStore.put(pipeline);
+                return out;
+            });
+        } catch (CompletionException e) {
+            throw BomService.unwrap(e);
+        }
     }
 
     public Envelope<String> getPeppolHTML(String billId) throws Exception {
         logger.debug("Rendering HTML invoice for billId: {}", billId);
-        Envelope<Invoice> invoice = this.getPeppolInvoice(billId);
-        Envelope<String> xml = new Peppol2XML().render(invoice);
-        Envelope<String> html = new PeppolXML2Html().render(xml);
+        RenderPipeline pipeline = this.getRenderPipeline(billId);
+        Envelope<String> html = metrics.countInvoice("html", pipeline::getHtml);
+        artifactStore.put(pipeline);
         logger.info("Rendered HTML invoice for billId: {}", billId);
         return html;
     }
 
     public Envelope<ByteArrayOutputStream> getPeppolPdf(String billId) throws Exception {
         logger.debug("Rendering PDF invoice for billId: {}", billId);
-        Envelope<String> html = this.getPeppolHTML(billId);
-        Envelope<ByteArrayOutputStream> pdf = new Html2Pdf().render(html);
-        
-        // flush on ByteArrayOutputStream 
-        ByteArrayOutputStream pdfStream = pdf.getContent();
-        pdfStream.flush();
-        
+        RenderPipeline pipeline = this.getRenderPipeline(billId);
+        Envelope<ByteArrayOutputStream> pdf = metrics.countInvoice("pdf", pipeline::getPdf);
+        artifactStore.put(pipeline);
         logger.info("Rendered PDF invoice for billId: {}, size: {} bytes", billId, pdf.getContent().size());
         return pdf;
     }
 
     public Envelope<String> getPeppolXml(String billId) throws ExternalServiceException {
         logger.debug("Rendering XML invoice for billId: {}", billId);
-        Envelope<Invoice> inv = getPeppolInvoice(billId);
-        Peppol2XML renderer = new Peppol2XML();
-        Envelope<String> xml = renderer.render(inv);
+        RenderPipeline pipeline = this.getRenderPipeline(billId);
+        Envelope<String> xml = metrics.countInvoice("xml", pipeline::getXml);
+        artifactStore.put(pipeline);
         logger.info("Rendered XML invoice for billId: {}, size: {} bytes", 
                     billId, xml.getContent().getBytes().length);
         return xml;
@@ -93,12 +140,10 @@ public class InvoicingService {
             String buyerId,
             String sellerId,
             OffsetDateTime fromDate,
-            OffsetDateTime toDate) throws ExternalServiceException {
+            OffsetDateTime toDate) throws Exception {
 
         logger.debug("Rendering XML invoices for buyer: {}, seller: {}", buyerId, sellerId);
-        Collection<Envelope<Invoice>> invoices = getPeppolInvoices(buyerId, sellerId, fromDate, toDate);
-        Peppol2XML renderer = new Peppol2XML();
-        Collection<Envelope<String>> xmls = renderer.render(invoices);
+        Collection<Envelope<String>> xmls = this.renderAll(buyerId, sellerId, fromDate, toDate, "xml", RenderPipeline::getXml);
         logger.info("Rendered {} XML invoices for buyer: {}, seller: {}", 
                     xmls.size(), buyerId, sellerId);
         return xmls;
@@ -110,9 +155,7 @@ public class InvoicingService {
             OffsetDateTime toDate) throws Exception {
 
         logger.debug("Rendering HTML invoices for buyer: {}, seller: {}", buyerId, sellerId);
-        Collection<Envelope<Invoice>> invoices = getPeppolInvoices(buyerId, sellerId, fromDate, toDate);
-        Collection<Envelope<String>> xml = new Peppol2XML().render(invoices);
-        Collection<Envelope<String>> htmls = new PeppolXML2Html().render(xml);
+        Collection<Envelope<String>> htmls = this.renderAll(buyerId, sellerId, fromDate, toDate, "html", RenderPipeline::getHtml);
         logger.info("Rendered {} HTML invoices for buyer: {}, seller: {}", 
                     htmls.size(), buyerId, sellerId);
         return htmls;
@@ -123,91 +166,261 @@ public class InvoicingService {
             OffsetDateTime fromDate,
             OffsetDateTime toDate) throws Exception {
         logger.debug("Rendering PDF invoices for buyer: {}, seller: {}", buyerId, sellerId);
-        Collection<Envelope<String>> htmls = this.getPeppolsHTML(buyerId, sellerId, fromDate, toDate);
-        Collection<Envelope<ByteArrayOutputStream>> pdfs = new Html2Pdf().render(htmls);
+        Collection<Envelope<ByteArrayOutputStream>> pdfs = this.renderAll(buyerId, sellerId, fromDate, toDate, "pdf", RenderPipeline::getPdf);
         logger.info("Rendered {} PDF invoices for buyer: {}, seller: {}", 
                     pdfs.size(), buyerId, sellerId);
         return pdfs;
     }
 
-    public byte[] getInvoicesXml(String buyerId, String sellerId, OffsetDateTime fromDate,
+    public InvoiceArchive getInvoicesXml(String buyerId, String sellerId, OffsetDateTime fromDate,
             OffsetDateTime toDate)
-            throws ExternalServiceException, IOException {
+            throws ExternalServiceException {
         logger.debug("Creating XML ZIP for buyer: {}, seller: {}", buyerId, sellerId);
-        byte[] zipBytes = ZipUtils.createZip(getPeppolsXml(buyerId, sellerId, fromDate, toDate));
-        logger.info("Created XML ZIP for buyer: {}, seller: {}, size: {} bytes", 
-                    buyerId, sellerId, zipBytes.length);
-        return zipBytes;
+        BomService.Bills bills = bomService.getBillsFor(buyerId, sellerId, fromDate, toDate);
+        return this.getArchive(bills, "xml", RenderPipeline::getXml, (zos, entry, pipeline) -> ZipUtils.writeEntry(zos, entry, pipeline.getXml()));
     }
 
-    public byte[] getInvoicesHtml(String buyerId, String sellerId, OffsetDateTime fromDate,
+    public InvoiceArchive getInvoicesHtml(String buyerId, String sellerId, OffsetDateTime fromDate,
             OffsetDateTime toDate)
-            throws Exception {
+            throws ExternalServiceException {
         logger.debug("Creating HTML ZIP for buyer: {}, seller: {}", buyerId, sellerId);
-        byte[] zipBytes = ZipUtils.createZip(getPeppolsHTML(buyerId, sellerId, fromDate, toDate));
-        logger.info("Created HTML ZIP for buyer: {}, seller: {}, size: {} bytes", 
-                    buyerId, sellerId, zipBytes.length);
-        return zipBytes;
+        BomService.Bills bills = bomService.getBillsFor(buyerId, sellerId, fromDate, toDate);
+        return this.getArchive(bills, "html", RenderPipeline::getHtml, (zos, entry, pipeline) -> ZipUtils.writeEntry(zos, entry, pipeline.getHtml()));
     }
 
-    public byte[] getInvoicesPdf(String buyerId, String sellerId, OffsetDateTime fromDate,
+    public InvoiceArchive getInvoicesPdf(String buyerId, String sellerId, OffsetDateTime fromDate,
             OffsetDateTime toDate)
-            throws Exception {
+            throws ExternalServiceException {
         logger.debug("Creating PDF ZIP for buyer: {}, seller: {}", buyerId, sellerId);
-        byte[] zipBytes = ZipUtils.createZip(getPeppolsPdf(buyerId, sellerId, fromDate, toDate));
-        logger.info("Created PDF ZIP for buyer: {}, seller: {}, size: {} bytes", 
-                    buyerId, sellerId, zipBytes.length);
-        return zipBytes;
+        BomService.Bills bills = bomService.getBillsFor(buyerId, sellerId, fromDate, toDate);
+        return this.getArchive(bills, "pdf", RenderPipeline::getPdf, (zos, entry, pipeline) -> ZipUtils.writeEntry(zos, entry, pipeline.getPdf()));
+    }
+
+    /**
+     * Renders the matching invoices in XML, HTML and PDF formats, building each BOM
+     * and PEPPOL invoice only once, and packs them into one nested ZIP per invoice.
+     */
+    public InvoiceArchive getInvoicesAll(
+            String buyerId,
+            String sellerId,
+            OffsetDateTime fromDate,
+            OffsetDateTime toDate) throws ExternalServiceException {
+
+        logger.debug("Creating all formats ZIP for buyer: {}, seller: {}", buyerId, sellerId);
+        BomService.Bills bills = bomService.getBillsFor(buyerId, sellerId, fromDate, toDate);
+        return this.getArchive(bills, "all", RenderPipeline::getPdf, (zos, entry, pipeline) -> ZipUtils.writeNestedZip(zos, entry,
+                List.of(pipeline.getXml(), pipeline.getHtml(), pipeline.getPdf())));
+    }
+
+    /**
+     * Builds a streaming archive: the bills are retrieved page by page, and their BOMs built and rendered up to
+     * the given stage in the render window, while the archive is written. Each entry is written, in bill order,
+     * as soon as its invoice is rendered, and the stream is flushed after every entry. Each invoice is added to
+     * the store, and reported to the progress listener, once written.
+     * <p>
+     * The pipeline of the first bill is prepared right away, to name the archive after it: its failure, like that
+     * of the first page of bills, is thrown before anything is written. The bills are closed once the archive is
+     * written, or fails, or when the archive is closed without being written.
+     * <p>
+     * Entries are named after their invoice, with the bill id appended when two invoices share a name.
+     * An invoice that fails to render is logged and listed in the {@link #ERRORS_ENTRY} written last.
+     * Any other failure, e.g. of the TMForum APIs while retrieving the bills or building a BOM, aborts the
+     * archive without writing its central directory (see {@link InvoiceArchive}).
+     */
+    private InvoiceArchive getArchive(BomService.Bills bills, String suffix, ParallelRenderer.Stage<?> stage,
+            EntryWriter entryWriter) throws ExternalServiceException {
+        RenderPipeline first;
+        try {
+            first = bills.hasNext() ? this.getRenderPipeline(bills.next(), bills.getCache()) : null;
+        } catch (CompletionException e) {
+            bills.close();
+            throw BomService.unwrap(e);
+        } catch (ExternalServiceException | RuntimeException e) {
+            bills.close();
+            throw e;
+        }
+        String name = getArchiveName(first, suffix);
+        String format = suffix;
+        // the first pipeline, already prepared, then those of the other bills, prepared in the window
+        Iterator<Callable<RenderPipeline>> pipelines = new Iterator<>() {
+            private RenderPipeline prepared = first;
+
+            @Override
+            public boolean hasNext() {
+                return this.prepared != null || bills.hasNext();
+            }
+
+            @Override
+            public Callable<RenderPipeline> next() {
+                if (this.prepared != null) {
+                    RenderPipeline pipeline = this.prepared;
+                    this.prepared = null;
+                    return () -> pipeline;
+                }
+                CustomerBill cb = bills.next();
+                return () -> getRenderPipeline(cb, bills.getCache());
+            }
+        };
+        ParallelRenderer.Task<Callable<RenderPipeline>, Rendered> renderingTask = preparing -> {
+            // a failure to build the BOM is not a failure of the invoice: it aborts the archive
+            RenderPipeline pipeline = preparing.call();
+            try {
+                metrics.countInvoice(format, () -> stage.render(pipeline));
+                return new Rendered(pipeline, null);
+            } catch (Exception e) {
+                logger.error("Failed to render invoice {} into {}: {}", pipeline.getName(), name, e.getMessage());
+                return new Rendered(pipeline, e);
+            }
+        };
+        InvoiceArchive.Writer writer = (out, progress) -> {
+            EntryNames entries = new EntryNames();
+            List<String> errors = new ArrayList<>();
+            int[] written = { 0 };
+            CountingOutputStream counter = new CountingOutputStream(StreamUtils.nonClosing(out));
+            // never closed on failure: closing would write the central directory of a truncated archive
+            ZipOutputStream zos = new ZipOutputStream(counter, StandardCharsets.UTF_8);
+            try {
+                parallelRenderer.renderEach(pipelines, renderingTask, rendered -> {
+                    RenderPipeline pipeline = rendered.pipeline();
+                    String entry = entries.of(pipeline);
+                    if (rendered.error() != null) {
+                        errors.add(entry + " (bill " + pipeline.getBillId() + "): " + rendered.error().getMessage());
+                        progress.failed(errors.size());
+                        return;
+                    }
+                    metrics.timeStage(PipelineMetrics.ZIP, () -> {
+                        entryWriter.write(zos, entry, pipeline);
+                        zos.flush();
+                        return null;
+                    });
+                    artifactStore.put(pipeline);
+                    progress.written(++written[0]);
+                });
+                if (!errors.isEmpty()) {
+                    ZipUtils.writeEntry(zos, new Envelope<>(String.join("\n", errors) + "\n", ERRORS_ENTRY, "txt"));
+                }
+                zos.close();
+            } catch (Exception e) {
+                Exception cause = e instanceof CompletionException ? BomService.unwrap((CompletionException) e) : e;
+                logger.error("Aborted archive {} after {} invoices: {}", name, written[0], cause.getMessage());
+                throw cause instanceof IOException io ? io : new IOException("Failed to render invoices into: " + name, cause);
+            }
+            metrics.recordSize("zip", counter.getCount());
+            if (errors.isEmpty()) {
+                logger.info("Streamed {} invoices into {}", written[0], name);
+            } else {
+                logger.warn("Streamed {} invoices into {}, {} failed (see {}.txt)", written[0], name, errors.size(), ERRORS_ENTRY);
+            }
+        };
+        return new InvoiceArchive(name, writer, bills::close);
     }
 
-    public byte[] getInvoiceAllFormats(String billId) throws Exception {
+    @FunctionalInterface
+    private interface EntryWriter {
+        void write(ZipOutputStream zos, String entry, RenderPipeline pipeline) throws Exception;
+    }
+
+    // a pipeline rendered up to the stage of an archive, or the failure of its render
+    private record Rendered(RenderPipeline pipeline, Exception error) {
+    }
+
+    // unique names of the entries of an archive, without extension
+    private static class EntryNames {
+
+        private final Set<String> used = new HashSet<>(Set.of(ERRORS_ENTRY));
+
+        String of(RenderPipeline pipeline) {
+            String name = pipeline.getName();
+            if (this.used.add(name)) {
+                return name;
+            }
+            String billId = pipeline.getBillId();
+            String unique = name + " (" + (billId != null ? billId.substring(billId.lastIndexOf(':') + 1) : "") + ")";
+            for (int i = 2; !this.used.add(unique); i++) {
+                unique = name + " (" + i + ")";
+            }
+            return unique;
+        }
+    }
+
+    // counts the bytes of a streamed archive
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+
+        long getCount() {
+            return this.count;
+        }
+    }
+
+    /**
+     * Builds the archive name from the first pipeline, e.g. <code>InvoicefromAtoBon20250101-xml.zip</code>,
+     * or <code>file-xml.zip</code> if there are no invoices.
+     */
+    private static String getArchiveName(RenderPipeline first, String suffix) {
+        return NamingUtils.sanitizeFilename(first == null ? null : first.getName()) + "-" + suffix + ".zip";
+    }
+
+    /**
+     * Renders a single invoice in XML, HTML and PDF formats, building the BOM and the PEPPOL invoice only once.
+     *
+     * @param billId the id of the CustomerBill
+     * @return an envelope with the ZIP archive, named after the invoice
+     */
+    public Envelope<byte[]> getInvoiceAllFormats(String billId) throws Exception {
         logger.debug("Creating all formats ZIP for billId: {}", billId);
-        Envelope<String> xml = getPeppolXml(billId);
-        Envelope<String> html = getPeppolHTML(billId);
-        Envelope<ByteArrayOutputStream> pdf = getPeppolPdf(billId);
-        Collection<Envelope<?>> all = List.of(xml, html, pdf);
+        RenderPipeline pipeline = this.getRenderPipeline(billId);
+        Collection<Envelope<?>> all = metrics.countInvoice("all", () -> List.of(pipeline.getXml(), pipeline.getHtml(), pipeline.getPdf()));
+        artifactStore.put(pipeline);
 
-        byte[] zipBytes = ZipUtils.createZip(all);
+        byte[] zipBytes = metrics.timeStage(PipelineMetrics.ZIP, () -> ZipUtils.createZip(all));
+        metrics.recordSize("zip", zipBytes.length);
         logger.info("Created all formats ZIP for billId: {}, size: {} bytes", billId, zipBytes.length);
-        return zipBytes;
+        return new Envelope<>(zipBytes, pipeline.getName(), "zip");
     }
 
-    public byte[] getInvoiceXmlAndHtmlFormats(String billId) {
+    /**
+     * Renders a single invoice in XML and HTML formats, building the BOM and the PEPPOL invoice only once.
+     *
+     * @param billId the id of the CustomerBill
+     * @return an envelope with the ZIP archive, named after the invoice
+     */
+    public Envelope<byte[]> getInvoiceXmlAndHtmlFormats(String billId) {
         try {
             logger.debug("Creating XML and HTML ZIP for billId: {}", billId);
-            Envelope<String> xml = getPeppolXml(billId);
-            Envelope<String> html = getPeppolHTML(billId);
-            Collection<Envelope<?>> all = List.of(xml, html);
+            RenderPipeline pipeline = this.getRenderPipeline(billId);
+            Collection<Envelope<?>> all = metrics.countInvoice("xml+html", () -> List.of(pipeline.getXml(), pipeline.getHtml()));
+            artifactStore.put(pipeline);
 
             all.forEach(env -> logger.debug("Adding to ZIP: {}.{} ({} bytes)",
                 env.getName(), env.getFormat(),
                 env.getContent() instanceof String s ? s.getBytes(StandardCharsets.UTF_8).length : 0));
             
-            byte[] zipBytes = ZipUtils.createZip(all);
+            byte[] zipBytes = metrics.timeStage(PipelineMetrics.ZIP, () -> ZipUtils.createZip(all));
+            metrics.recordSize("zip", zipBytes.length);
             logger.info("Created XML and HTML ZIP for billId: {}, size: {} bytes", billId, zipBytes.length);
             
-            return zipBytes;
+            return new Envelope<>(zipBytes, pipeline.getName(), "zip");
         } catch (Exception e) {
         	logger.error("Failed to create XML/HTML ZIP for billId={}", billId, e);
             throw new RuntimeException("Failed to get invoice in XML and HTML formats for billId: " + billId, e);
         }
     }
 
-    public byte[] getInvoicesAll(
-            String buyerId,
-            String sellerId,
-            OffsetDateTime fromDate,
-            OffsetDateTime toDate) throws Exception {
-
-        logger.debug("Creating all formats ZIP for buyer: {}, seller: {}", buyerId, sellerId);
-        Collection<Envelope<String>> xmls = getPeppolsXml(buyerId, sellerId, fromDate, toDate);
-        Collection<Envelope<String>> htmls = getPeppolsHTML(buyerId, sellerId, fromDate, toDate);
-        Collection<Envelope<ByteArrayOutputStream>> pdfs = getPeppolsPdf(buyerId, sellerId, fromDate, toDate);
-
-        byte[] zipBytes = ZipUtils.zipPerInvoice(xmls, htmls, pdfs);
-        logger.info("Created all formats ZIP for buyer: {}, seller: {}, size: {} bytes", 
-                    buyerId, sellerId, zipBytes.length);
-        return zipBytes;
-    }
-
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package it.eng.dome.invoicing.engine.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import it.eng.dome.invoicing.engine.service.utils.MoneyUtils;
+import it.eng.dome.tmforum.tmf678.v4.model.Money;
+import it.eng.dome.tmforum.tmf678.v4.model.TaxItem;
+
+/**
+ * Sums tax amounts by tax rate and tax category, as the {@link TaxItem}s of a CustomerBill.
+ * <p>
+ * Amounts are accumulated as cents in an open-addressing table keyed by the rate bits and the
+ * category: adding an amount allocates nothing, and a bill has only a handful of distinct keys.
+ * Tax items are returned in the order their key was first added; each one has the unit of the
+ * first amount added for its key. Instances are not thread-safe.
+ */
+public class TaxItemAggregator {
+
+    // marks a null rate: a NaN that Float.floatToIntBits never returns
+    private static final int NULL_RATE = 0x7fc00001;
+
+    // slot => entry index + 1, 0 for empty slots; the length is a power of two
+    private int[] slots;
+
+    // entries, in insertion order
+    private int[] rateBits;
+    private String[] categories;
+    private String[] units;
+    private long[] cents;
+    private int size;
+
+    public TaxItemAggregator() {
+        this.slots = new int[16];
+        this.rateBits = new int[8];
+        this.categories = new String[8];
+        this.units = new String[8];
+        this.cents = new long[8];
+    }
+
+    /**
+     * Adds a tax amount, rounded to cents.
+     */
+    public void add(Float taxRate, String taxCategory, BigDecimal taxAmount, String unit) {
+        int bits = taxRate == null ? NULL_RATE : Float.floatToIntBits(taxRate);
+        int entry = this.entryOf(bits, taxCategory, unit);
+        this.cents[entry] += MoneyUtils.toCents(taxAmount);
+    }
+
+    public void add(TaxItem taxItem) {
+        Money amount = taxItem.getTaxAmount();
+        this.add(taxItem.getTaxRate(), taxItem.getTaxCategory(),
+                MoneyUtils.toAmount(amount != null ? amount.getValue() : null),
+                amount != null ? amount.getUnit() : null);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public List<TaxItem> getTaxItems() {
+        List<TaxItem> taxItems = new ArrayList<>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            Money money = new Money();
+            money.setValue(MoneyUtils.fromCents(this.cents[i]).floatValue());
+            money.setUnit(this.units[i]);
+
+            TaxItem taxItem = new TaxItem();
+            taxItem.setTaxRate(this.rateBits[i] == NULL_RATE ? null : Float.intBitsToFloat(this.rateBits[i]));
+            taxItem.setTaxCategory(this.categories[i]);
+            taxItem.setTaxAmount(money);
+            taxItems.add(taxItem);
+        }
+        return taxItems;
+    }
+
+    private int entryOf(int bits, String category, String unit) {
+        int mask = this.slots.length - 1;
+        int slot = hash(bits, category) & mask;
+        while (this.slots[slot] != 0) {
+            int entry = this.slots[slot] - 1;
+            if (this.rateBits[entry] == bits && Objects.equals(this.categories[entry], category)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // new key
+        if (this.size == this.rateBits.length) {
+            this.growEntries();
+        }
+        int entry = this.size++;
+        this.rateBits[entry] = bits;
+        this.categories[entry] = category;
+        this.units[entry] = unit;
+        this.slots[slot] = entry + 1;
+        // keep the table at most half full
+        if (this.size * 2 > this.slots.length) {
+            this.rehash();
+        }
+        return entry;
+    }
+
+    private void growEntries() {
+        int capacity = this.rateBits.length * 2;
+        this.rateBits = Arrays.copyOf(this.rateBits, capacity);
+        this.categories = Arrays.copyOf(this.categories, capacity);
+        this.units = Arrays.copyOf(this.units, capacity);
+        this.cents = Arrays.copyOf(this.cents, capacity);
+    }
+
+    private void rehash() {
+        this.slots = new int[this.slots.length * 2];
+        int mask = this.slots.length - 1;
+        for (int entry = 0; entry < this.size; entry++) {
+            int slot = hash(this.rateBits[entry], this.categories[entry]) & mask;
+            while (this.slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            this.slots[slot] = entry + 1;
+        }
+    }
+
+    private static int hash(int bits, String category) {
+        int h = 31 * bits + Objects.hashCode(category);
+        // spread the high bits, as HashMap does
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -1,24 +1,32 @@
 package it.eng.dome.invoicing.engine.service;
 
-import java.io.IOException;
+import java.math.BigDecimal;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import it.eng.dome.brokerage.exception.BadRelatedPartyException;
 import it.eng.dome.brokerage.model.Invoice;
-import it.eng.dome.invoicing.engine.model.TaxItemKey;
+import it.eng.dome.invoicing.engine.model.TaxRateKey;
 import it.eng.dome.invoicing.engine.rate.RateManager;
+import it.eng.dome.invoicing.engine.service.utils.MoneyUtils;
 
 import it.eng.dome.tmforum.tmf622.v4.model.Money;
 import it.eng.dome.tmforum.tmf622.v4.model.OrderPrice;
@@ -44,6 +52,11 @@ public class TaxService {
 	@Autowired
 	private RateManager rateManager;
 
+	// rates are retrieved from TMForum and TEDB, like the BOM entities
+	@Autowired
+	@Qualifier("tmfExecutor")
+	private ExecutorService tmfExecutor;
+
 	public ProductOrder applyTaxes(ProductOrder order) throws Exception {
 
 		// retrieve the rate
@@ -68,36 +81,37 @@ public class TaxService {
 		return order;
 	}
 
-	private Invoice applyTaxes(CustomerBill cb, List<AppliedCustomerBillingRate> acbrs) throws Exception{
+	private Invoice applyTaxes(CustomerBill cb, List<AppliedCustomerBillingRate> acbrs, Iterator<BigDecimal> rates) {
 		
 		List<AppliedCustomerBillingRate> acbrWithTaxes=new ArrayList<AppliedCustomerBillingRate>();
+		// TaxItems of the CustomerBill, summed while the ACBRs are taxed
+		TaxItemAggregator taxItems=new TaxItemAggregator();
 		
 		for (AppliedCustomerBillingRate acbr : acbrs) {
-			acbrWithTaxes.add(this.applyTaxes(acbr));
+			acbrWithTaxes.add(this.applyTaxes(acbr, rates.next(), taxItems));
 		}
 		
-		this.updateCustomerBillWithTaxes(cb, acbrWithTaxes);
+		this.updateCustomerBillWithTaxes(cb, acbrWithTaxes, taxItems);
 		
 		return new Invoice(cb,acbrWithTaxes);
 	}
 	
-	private CustomerBill updateCustomerBillWithTaxes(@NotNull CustomerBill cb, @NotNull List<AppliedCustomerBillingRate> acbrsWithTaxes) {
+	private CustomerBill updateCustomerBillWithTaxes(@NotNull CustomerBill cb, @NotNull List<AppliedCustomerBillingRate> acbrsWithTaxes,
+			@NotNull TaxItemAggregator taxItems) {
 		
-		Float totalTaxIncludedAmount=0f;
-		List<TaxItem> taxItems=new ArrayList<TaxItem>();
+		BigDecimal totalTaxIncludedAmount=MoneyUtils.ZERO;
 		
-		// For each ACBR sum the amount and get the TaxItem
+		// For each ACBR sum the amount
 		for(AppliedCustomerBillingRate acbr: acbrsWithTaxes) {
-			totalTaxIncludedAmount += acbr.getTaxIncludedAmount().getValue();
-			taxItems.addAll(this.getTaxItemsFromAppliedBillingTaxRate(acbr.getAppliedTax()));
+			totalTaxIncludedAmount = totalTaxIncludedAmount.add(MoneyUtils.toAmount(acbr.getTaxIncludedAmount().getValue()));
 		}
 		
 		// Aggregated TaxItem list for each tax rate and tax type
-		List<TaxItem> aggregatedTaxItems= aggregateTaxItems(taxItems);
+		List<TaxItem> aggregatedTaxItems= taxItems.getTaxItems();
 		
 		it.eng.dome.tmforum.tmf678.v4.model.Money taxIncludedAmount = new it.eng.dome.tmforum.tmf678.v4.model.Money();
 		taxIncludedAmount.setUnit(cb.getTaxExcludedAmount().getUnit());
-		taxIncludedAmount.setValue(totalTaxIncludedAmount);
+		taxIncludedAmount.setValue(totalTaxIncludedAmount.floatValue());
 		
 		cb.setTaxIncludedAmount(taxIncludedAmount);
 		cb.setTaxItem(aggregatedTaxItems);
@@ -107,34 +121,71 @@ public class TaxService {
 		return cb;
 	}
 	
-	private List<TaxItem> getTaxItemsFromAppliedBillingTaxRate(@NotNull List<AppliedBillingTaxRate> acbrTaxRates){
-		List<TaxItem> taxItems=new ArrayList<TaxItem>();
-		
-		for(AppliedBillingTaxRate acbrTaxRate: acbrTaxRates) {
-			TaxItem taxItem=new TaxItem();
-			taxItem.setTaxAmount(acbrTaxRate.getTaxAmount());
-			taxItem.setTaxCategory(acbrTaxRate.getTaxCategory());
-			taxItem.setTaxRate(acbrTaxRate.getTaxRate());
-			
-			taxItems.add(taxItem);
-		}
-		
-		return taxItems;
-	}
-
-	private AppliedCustomerBillingRate applyTaxes(AppliedCustomerBillingRate bill) throws Exception{
+	private TaxRateKey getTaxRateKey(AppliedCustomerBillingRate bill, Map<TaxRateKey, RateQuery> queries) throws Exception {
 
 		// retrieve the involved parties
-		List<RelatedParty> involvedParties = this.retrieveRelatedParties(bill);
-		RelatedParty buyer = this.getBuyer(involvedParties);
-		RelatedParty seller = this.getSeller(involvedParties);
+		List<it.eng.dome.tmforum.tmf678.v4.model.RelatedParty> involvedParties = this.retrieveRelatedParties(bill);
+		String buyerId = this.getBuyer(involvedParties).getId();
+		String sellerId = this.getSeller(involvedParties).getId();
 
 		// retrieve the date of the bill
 		Calendar billDate = this.extractDateForVAT(bill);
 
-		// retrieve the VAT rate
-		float rate = this.rateManager.getVATRateFor(buyer, seller, billDate).floatValue();
-		logger.info("retrieved rate is " + rate);
+		TaxRateKey key = new TaxRateKey(buyerId, sellerId, billDate);
+		queries.putIfAbsent(key, new RateQuery(buyerId, sellerId, billDate));
+		return key;
+	}
+
+	/**
+	 * Retrieves the VAT rates of all the keys at the same time.
+	 */
+	private Map<TaxRateKey, BigDecimal> resolveRates(Map<TaxRateKey, RateQuery> queries) throws Exception {
+		Map<TaxRateKey, CompletableFuture<Number>> futures = new LinkedHashMap<>();
+		for (Map.Entry<TaxRateKey, RateQuery> entry : queries.entrySet()) {
+			RateQuery query = entry.getValue();
+			futures.put(entry.getKey(), CompletableFuture.supplyAsync(() -> {
+				try {
+					return this.rateManager.getVATRateFor(query.buyerId(), query.sellerId(), query.date());
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new CompletionException(e);
+				}
+			}, this.tmfExecutor));
+		}
+
+		// fails as soon as any rate fails, without waiting for the others
+		CompletableFuture<Void> firstFailure = new CompletableFuture<>();
+		futures.values().forEach(future -> future.whenComplete((rate, e) -> {
+			if (e != null) {
+				firstFailure.completeExceptionally(e);
+			}
+		}));
+		try {
+			CompletableFuture.anyOf(CompletableFuture.allOf(futures.values().toArray(CompletableFuture[]::new)), firstFailure).join();
+		} catch (CompletionException | CancellationException e) {
+			// the rates not retrieved yet are not needed anymore
+			futures.values().forEach(future -> future.cancel(false));
+			Throwable cause = e;
+			while (cause instanceof CompletionException && cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof Exception exception) {
+				throw exception;
+			}
+			throw e;
+		}
+
+		Map<TaxRateKey, BigDecimal> rates = new HashMap<>();
+		for (Map.Entry<TaxRateKey, CompletableFuture<Number>> entry : futures.entrySet()) {
+			BigDecimal rate = MoneyUtils.toRate(entry.getValue().join());
+			logger.info("retrieved rate for {} is {}", entry.getKey(), rate);
+			rates.put(entry.getKey(), rate);
+		}
+		return rates;
+	}
+
+	private AppliedCustomerBillingRate applyTaxes(AppliedCustomerBillingRate bill, BigDecimal rate, TaxItemAggregator taxItems) {
 
 		// retrieving the taxExcludedAmount
 		it.eng.dome.tmforum.tmf678.v4.model.Money taxExcluded = bill.getTaxExcludedAmount();
@@ -143,6 +194,9 @@ public class TaxService {
 		List<AppliedBillingTaxRate> appliedTaxes = new ArrayList<>();
 		appliedTaxes.add(this.applyVatTax(taxExcluded, rate));
 		bill.setAppliedTax(appliedTaxes);
+		for (AppliedBillingTaxRate tax : appliedTaxes) {
+			taxItems.add(tax.getTaxRate(), tax.getTaxCategory(), MoneyUtils.toAmount(tax.getTaxAmount().getValue()), tax.getTaxAmount().getUnit());
+		}
 
 		// and this should be the sum of the two above.
 		bill.setTaxIncludedAmount(this.addTaxes(bill.getTaxExcludedAmount(), appliedTaxes));
@@ -154,10 +208,11 @@ public class TaxService {
 			List<AppliedBillingTaxRate> taxes) {
 		it.eng.dome.tmforum.tmf678.v4.model.Money outMoney = new it.eng.dome.tmforum.tmf678.v4.model.Money();
 		outMoney.setUnit(inMoney.getUnit());
-		outMoney.setValue(inMoney.getValue());
+		BigDecimal value = MoneyUtils.toAmount(inMoney.getValue());
 		for (AppliedBillingTaxRate tax : taxes) {
-			outMoney.setValue(outMoney.getValue() + tax.getTaxAmount().getValue());
+			value = value.add(MoneyUtils.toAmount(tax.getTaxAmount().getValue()));
 		}
+		outMoney.setValue(value.floatValue());
 		return outMoney;
 	}
 
@@ -202,22 +257,18 @@ public class TaxService {
 	}
 	*/
 
-	private List<RelatedParty> retrieveRelatedParties(AppliedCustomerBillingRate acbr) throws Exception {
+	private List<it.eng.dome.tmforum.tmf678.v4.model.RelatedParty> retrieveRelatedParties(AppliedCustomerBillingRate acbr) {
 		List<it.eng.dome.tmforum.tmf678.v4.model.RelatedParty> parties = acbr.getRelatedParty();
 		if (parties != null) {
-			return this.convert(parties);
+			return parties;
 		}
-		return new ArrayList<RelatedParty>();
+		return new ArrayList<it.eng.dome.tmforum.tmf678.v4.model.RelatedParty>();
 	}
 
 //	private RelatedParty convert(it.eng.dome.tmforum.tmf637.v4.model.RelatedParty inParty) throws IOException {
 //		return RelatedParty.fromJson(inParty.toJson());
 //	}
 
-	private RelatedParty convert(it.eng.dome.tmforum.tmf678.v4.model.RelatedParty inParty) throws IOException {
-		return RelatedParty.fromJson(inParty.toJson());
-	}
-
 	/*
 	private List<RelatedParty> convert(List<it.eng.dome.tmforum.tmf637.v4.model.RelatedParty> inList) throws IOException {
 		List<RelatedParty> out = new ArrayList<>();
@@ -228,14 +279,6 @@ public class TaxService {
 	}
 	*/
 
-	private List<RelatedParty> convert(List<it.eng.dome.tmforum.tmf678.v4.model.RelatedParty> inList) throws IOException {
-		List<RelatedParty> out = new ArrayList<>();
-		for (it.eng.dome.tmforum.tmf678.v4.model.RelatedParty rp : inList) {
-			out.add(this.convert(rp));
-		}
-		return out;
-	}
-
 	public ProductOrderItem applyTax(ProductOrderItem item, float taxRate) {
 		List<OrderPrice> itemPrices = item.getItemPrice();
 		if (itemPrices != null) {
@@ -295,7 +338,9 @@ public class TaxService {
 			}
 			Float dutyFreeValue = dutyFreeAmount.getValue();
 			if (dutyFreeValue != null) {
-				taxIncluedeAmount.setValue(dutyFreeValue * (1 + taxRate));
+				// not rounded: prices can be unit prices, with more than two decimals
+				BigDecimal taxIncluded = MoneyUtils.toDecimal(dutyFreeValue).multiply(BigDecimal.ONE.add(MoneyUtils.toRate(taxRate)));
+				taxIncluedeAmount.setValue(taxIncluded.floatValue());
 			}
 		}
 
@@ -305,13 +350,13 @@ public class TaxService {
 		return inPrice;
 	}
 
-	private AppliedBillingTaxRate applyVatTax(it.eng.dome.tmforum.tmf678.v4.model.Money money, float taxRate) {
+	private AppliedBillingTaxRate applyVatTax(it.eng.dome.tmforum.tmf678.v4.model.Money money, BigDecimal taxRate) {
 		AppliedBillingTaxRate out = new AppliedBillingTaxRate();
 		out.setTaxCategory("VAT");
-		out.setTaxRate(taxRate);
+		out.setTaxRate(taxRate.floatValue());
 		it.eng.dome.tmforum.tmf678.v4.model.Money taxAmount = new it.eng.dome.tmforum.tmf678.v4.model.Money();
 		taxAmount.setUnit(money.getUnit());
-		taxAmount.setValue(money.getValue() * taxRate);
+		taxAmount.setValue(MoneyUtils.taxOf(MoneyUtils.toDecimal(money.getValue()), taxRate).floatValue());
 		out.setTaxAmount(taxAmount);
 		return out;
 	}
@@ -324,8 +369,8 @@ public class TaxService {
 		//return this.extractRelatedPartyIdByRole(order, "seller");
 	}
 
-	private RelatedParty getSeller(List<RelatedParty> parties) throws Exception {
-		RelatedParty out=this.extractRelatedPartyIdByRole(parties, "seller");
+	private it.eng.dome.tmforum.tmf678.v4.model.RelatedParty getSeller(List<it.eng.dome.tmforum.tmf678.v4.model.RelatedParty> parties) throws Exception {
+		it.eng.dome.tmforum.tmf678.v4.model.RelatedParty out=this.extractRelatedPartyIdByRole(parties, "seller");
 		if(out==null) 
 			throw new BadRelatedPartyException("The RelatedParty with role 'seller' is missing in the order");
 		return out;
@@ -343,9 +388,9 @@ public class TaxService {
 		return out;
 	}
 
-	private RelatedParty getBuyer(List<RelatedParty> parties) throws Exception {
+	private it.eng.dome.tmforum.tmf678.v4.model.RelatedParty getBuyer(List<it.eng.dome.tmforum.tmf678.v4.model.RelatedParty> parties) throws Exception {
 		// try with both roles 'buyer' and 'customer'
-		RelatedParty out = this.extractRelatedPartyIdByRole(parties, "customer");
+		it.eng.dome.tmforum.tmf678.v4.model.RelatedParty out = this.extractRelatedPartyIdByRole(parties, "customer");
 		if (out == null) {
 			out = this.extractRelatedPartyIdByRole(parties, "buyer");
 		}
@@ -366,9 +411,9 @@ public class TaxService {
 		return null;
 	}
 
-	private RelatedParty extractRelatedPartyIdByRole(List<RelatedParty> parties, String role) {
+	private it.eng.dome.tmforum.tmf678.v4.model.RelatedParty extractRelatedPartyIdByRole(List<it.eng.dome.tmforum.tmf678.v4.model.RelatedParty> parties, String role) {
 		if (parties != null) {
-			for (RelatedParty party : parties) {
+			for (it.eng.dome.tmforum.tmf678.v4.model.RelatedParty party : parties) {
 				if (role.equalsIgnoreCase(party.getRole())) {
 					return party;
 				}
@@ -377,49 +422,50 @@ public class TaxService {
 		return null;
 	}
 	
+	/**
+	 * Applies the taxes to the ACBRs of the invoices and updates their CustomerBills.
+	 * The rate of each distinct (buyer, seller, VAT date) is retrieved only once, concurrently with the others.
+	 */
 	public List<Invoice> applyTaxes(@NotNull List<Invoice> invoices) throws Exception{
-		List<Invoice> invoicesWithTaxes=new ArrayList<Invoice>();
+		List<Invoice> invoicesToTax=new ArrayList<Invoice>();
 		
+		// 1: the rate to retrieve for each ACBR, in order
+		Map<TaxRateKey, RateQuery> queries=new LinkedHashMap<TaxRateKey, RateQuery>();
+		List<TaxRateKey> acbrKeys=new ArrayList<TaxRateKey>();
 		for(Invoice invoice:invoices) {
-			if(invoice.getCustomerBill()!=null && invoice.getAcbrs()!=null && !invoice.getAcbrs().isEmpty())
-				invoicesWithTaxes.add(this.applyTaxes(invoice.getCustomerBill(), invoice.getAcbrs()));
+			if(invoice.getCustomerBill()!=null && invoice.getAcbrs()!=null && !invoice.getAcbrs().isEmpty()) {
+				invoicesToTax.add(invoice);
+				for (AppliedCustomerBillingRate acbr : invoice.getAcbrs()) {
+					acbrKeys.add(this.getTaxRateKey(acbr, queries));
+				}
+			}
 		}
 		
+		// 2: retrieve the distinct rates
+		logger.debug("Retrieving {} distinct rates for {} ACBRs", queries.size(), acbrKeys.size());
+		Map<TaxRateKey, BigDecimal> rates=this.resolveRates(queries);
+		
+		// 3: apply them
+		Iterator<BigDecimal> acbrRates=acbrKeys.stream().map(rates::get).iterator();
+		List<Invoice> invoicesWithTaxes=new ArrayList<Invoice>();
+		for(Invoice invoice:invoicesToTax) {
+			invoicesWithTaxes.add(this.applyTaxes(invoice.getCustomerBill(), invoice.getAcbrs(), acbrRates));
+		}
 		
 		return invoicesWithTaxes;
 	}
 	
+	private record RateQuery(String buyerId, String sellerId, Calendar date) {
+	}
+	
 	public List<TaxItem> aggregateTaxItems(List<TaxItem> taxItems){
 		
-		Map<TaxItemKey, List<TaxItem>> grouped =
-		        taxItems.stream()
-		                .collect(Collectors.groupingBy(
-		                        item -> new TaxItemKey(item.getTaxRate(), item.getTaxCategory())
-		                ));
-
-		List<TaxItem> result = new ArrayList<>();
-
-		for (Map.Entry<TaxItemKey, List<TaxItem>> entry : grouped.entrySet()) {
-		    TaxItem first = entry.getValue().get(0);
-
-		    float sum = 0f;
-		    for (TaxItem item : entry.getValue()) {
-		        sum += item.getTaxAmount().getValue();
-		    }
-
-		    it.eng.dome.tmforum.tmf678.v4.model.Money money = new it.eng.dome.tmforum.tmf678.v4.model.Money();
-		    money.setValue(sum);
-		    money.setUnit(first.getTaxAmount().getUnit());
-		    
-		    TaxItem aggregated = new TaxItem();
-		    aggregated.setTaxRate(entry.getKey().getTaxRate());
-		    aggregated.setTaxCategory(entry.getKey().getTaxCategory());
-		    aggregated.setTaxAmount(money);
-
-		    result.add(aggregated);
+		TaxItemAggregator aggregator = new TaxItemAggregator();
+		for (TaxItem item : taxItems) {
+			aggregator.add(item);
 		}
 		
-		return result;
+		return aggregator.getTaxItems();
 	}
 	
 
@@ -0,0 +1,56 @@
+package it.eng.dome.invoicing.engine.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import it.eng.dome.tmforum.tmf620.v4.model.ProductOffering;
+import it.eng.dome.tmforum.tmf632.v4.model.Organization;
+import it.eng.dome.tmforum.tmf666.v4.model.BillingAccount;
+
+/**
+ * Request-scoped cache of the TMForum entities referenced by one or more BOMs.
+ * <p>
+ * Entries are id-keyed futures, so concurrent lookups for the same id share a single
+ * in-flight request. A new instance should be created for each incoming request
+ * (e.g. a bulk export) and dropped afterwards: entities are never refreshed.
+ * <p>
+ * Only the entities that repeat across bills are kept: offerings, organizations and billing
+ * accounts. Products are rarely shared by bills, so they are looked up once per BOM instead,
+ * and the cache stays as small as the catalog and the parties of the export, not its bills.
+ */
+public class TmfEntityCache {
+
+    private final Map<String, CompletableFuture<ProductOffering>> productOfferings = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Organization>> organizations = new ConcurrentHashMap<>();
+    // billing accounts are keyed by the id of the owning party
+    private final Map<String, CompletableFuture<List<BillingAccount>>> billingAccounts = new ConcurrentHashMap<>();
+
+    CompletableFuture<ProductOffering> productOffering(String id, Function<String, CompletableFuture<ProductOffering>> loader) {
+        return this.productOfferings.computeIfAbsent(id, loader);
+    }
+
+    CompletableFuture<Organization> organization(String id, Function<String, CompletableFuture<Organization>> loader) {
+        return this.organizations.computeIfAbsent(id, loader);
+    }
+
+    CompletableFuture<List<BillingAccount>> billingAccounts(String partyId, Function<String, CompletableFuture<List<BillingAccount>>> loader) {
+        return this.billingAccounts.computeIfAbsent(partyId, loader);
+    }
+
+    /**
+     * @return the number of entities cached (or being retrieved)
+     */
+    public int size() {
+        return this.productOfferings.size() + this.organizations.size() + this.billingAccounts.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TmfEntityCache[productOfferings=%d, organizations=%d, billingAccounts=%d]",
+                this.productOfferings.size(), this.organizations.size(), this.billingAccounts.size());
+    }
+
+}
@@ -3,7 +3,6 @@ package it.eng.dome.invoicing.engine. service.render;
 import java.util.*;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.regex.Pattern;
 
 import it.eng.dome.tmforum.tmf666.v4.model.BillingAccount;
@@ -12,6 +11,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import it.eng.dome.invoicing.engine.model.InvoiceBom;
+import it.eng.dome.invoicing.engine.service.utils.MoneyUtils;
 import it.eng.dome.tmforum.tmf632.v4.model.Characteristic;
 import it.eng.dome.tmforum.tmf632.v4.model.Organization;
 import it.eng.dome.tmforum.tmf637.v4.model.Product;
@@ -24,8 +24,6 @@ public class BomToPeppol {
 
     private static final Logger LOG = LoggerFactory.getLogger(BomToPeppol. class);
     
-    private static final int SCALE = 2;
-    
     private static final String EXEMPTION_TEXT = "Not subject to VAT";
     
     private static final Pattern EMAIL_PATTERN = Pattern.compile("^[A-Za-z0-9._%+-]+@[A-Za-z0-9.-]+\\.[A-Z|a-z]{2,}$");
@@ -608,7 +606,7 @@ public class BomToPeppol {
      */
     private TaxCalculationResult calculateTaxTotals(CustomerBill cb, String supplierId, InvoiceBom bom) {
         List<TaxSubtotal> taxSubtotals = new ArrayList<>();
-        BigDecimal taxTotal = BigDecimal.ZERO. setScale(SCALE, RoundingMode.HALF_UP);
+        BigDecimal taxTotal = MoneyUtils.ZERO;
         
         // Group lines by tax category
         Map<String, BigDecimal> taxableByCategory = new LinkedHashMap<>();
@@ -623,8 +621,8 @@ public class BomToPeppol {
                 
                 if (acbr. getAppliedTax() != null && ! acbr.getAppliedTax().isEmpty()) {
                     if (acbr.getAppliedTax().get(0).getTaxRate() != null) {
-                        ratePct = toBD(acbr.getAppliedTax().get(0).getTaxRate());
-                        lineTaxAmount = lineAmount. multiply(ratePct).setScale(SCALE, RoundingMode.HALF_UP);
+                        ratePct = MoneyUtils.toRate(acbr.getAppliedTax().get(0).getTaxRate());
+                        lineTaxAmount = MoneyUtils.taxOf(lineAmount, ratePct);
                     }
                 }
                 
@@ -742,7 +740,7 @@ public class BomToPeppol {
 
         if (acbr.getAppliedTax() != null && !acbr.getAppliedTax().isEmpty()) {
             if (acbr.getAppliedTax().get(0).getTaxRate() != null) {
-                ratePct = toBD(acbr.getAppliedTax().get(0).getTaxRate()).multiply(BigDecimal.valueOf(100));
+                ratePct = MoneyUtils.toRate(acbr.getAppliedTax().get(0).getTaxRate()).multiply(BigDecimal.valueOf(100));
             }
             if (acbr.getAppliedTax().get(0).getTaxCategory() != null) {
                 taxSchemeId = acbr. getAppliedTax().get(0).getTaxCategory();
@@ -792,7 +790,7 @@ public class BomToPeppol {
 
         if (acbr. getAppliedTax() != null && !acbr.getAppliedTax().isEmpty()) {
             if (acbr.getAppliedTax().get(0).getTaxRate() != null) {
-                ratePct = toBD(acbr.getAppliedTax().get(0).getTaxRate()).multiply(BigDecimal.valueOf(100));
+                ratePct = MoneyUtils.toRate(acbr.getAppliedTax().get(0).getTaxRate()).multiply(BigDecimal.valueOf(100));
             }
             if (acbr.getAppliedTax().get(0).getTaxCategory() != null) {
                 taxSchemeId = acbr.getAppliedTax().get(0).getTaxCategory();
@@ -841,7 +839,7 @@ public class BomToPeppol {
      */
     private LegalMonetaryTotal createLegalMonetaryTotal(CustomerBill cb, BigDecimal taxTotalAmount, InvoiceBom bom) {
         // Calculate LineExtensionAmount from actual lines
-        BigDecimal lineExtensionSum = BigDecimal.ZERO. setScale(SCALE, RoundingMode.HALF_UP);
+        BigDecimal lineExtensionSum = MoneyUtils.ZERO;
         
         if (bom.getAppliedCustomerBillingRates() != null) {
             for (AppliedCustomerBillingRate acbr : bom. getAppliedCustomerBillingRates()) {
@@ -851,7 +849,7 @@ public class BomToPeppol {
         }
         
         BigDecimal taxExclusive = lineExtensionSum;
-        BigDecimal taxInclusive = taxExclusive.add(taxTotalAmount).setScale(SCALE, RoundingMode.HALF_UP);
+        BigDecimal taxInclusive = MoneyUtils.round(taxExclusive.add(taxTotalAmount));
         BigDecimal payableAmount = taxInclusive;
         
         String unit = cb.getTaxExcludedAmount() != null ? cb.getTaxExcludedAmount().getUnit() : "EUR";
@@ -908,7 +906,7 @@ public class BomToPeppol {
                 BigDecimal ratePct = BigDecimal.ZERO;
                 if (acbr.getAppliedTax() != null && !acbr.getAppliedTax().isEmpty() &&
                         acbr.getAppliedTax().get(0).getTaxRate() != null) {
-                    ratePct = toBD(acbr.getAppliedTax().get(0).getTaxRate()).multiply(BigDecimal.valueOf(100));
+                    ratePct = MoneyUtils.toRate(acbr.getAppliedTax().get(0).getTaxRate()).multiply(BigDecimal.valueOf(100));
                 }
 
                 String lineCat = determineTaxCategory(ratePct, supplierId);
@@ -1036,8 +1034,7 @@ public class BomToPeppol {
      * @return BigDecimal with scale 2, or zero if input is null
      */
     private static BigDecimal toBD(Number n) {
-        if (n == null) return BigDecimal.ZERO. setScale(SCALE, RoundingMode.HALF_UP);
-        return new BigDecimal(n.toString()).setScale(SCALE, RoundingMode.HALF_UP);
+        return MoneyUtils.toAmount(n);
     }
 
     /**
@@ -1047,6 +1044,6 @@ public class BomToPeppol {
      * @return formatted string (e.g., "1234.56")
      */
     private static String fmtMoney(BigDecimal bd) {
-        return bd.setScale(SCALE, RoundingMode. HALF_UP).toPlainString();
+        return MoneyUtils.format(bd);
     }
 }
\ No newline at end of file
@@ -1,16 +1,85 @@
 package it.eng.dome.invoicing.engine.service.render;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.Semaphore;
 
 import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
+import org.jsoup.helper.W3CDom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
 import org.xhtmlrenderer.layout.SharedContext;
 import org.xhtmlrenderer.pdf.ITextRenderer;
 
+import it.eng.dome.invoicing.engine.metrics.PipelineMetrics;
+
+/**
+ * Renders HTML documents to PDF with Flying Saucer.
+ * <p>
+ * The HTML is parsed by Jsoup and converted to DOM directly, without the XHTML serialize/re-parse
+ * round trip. A new renderer is created for every document: {@link #warmUp()} only loads, once per JVM,
+ * the classes, fonts and default user-agent stylesheet that Flying Saucer keeps at class level.
+ * <p>
+ * Each instance bounds the number of its renders running at the same time: callers exceeding the limit
+ * wait for a free slot, so the renderer should be shared (see <code>RenderConfig</code>). The
+ * {@link PipelineMetrics#PDF} stage is timed once the slot is taken, so it does not include the wait.
+ */
 public class Html2Pdf {
 
+    private static final Logger logger = LoggerFactory.getLogger(Html2Pdf.class);
+
+    private static final String WARM_UP_HTML = "<html><head><style>body { font-family: verdana, Helvetica, sans-serif; }</style></head>"
+            + "<body><p>warm-up</p><p><b>warm-up</b></p><p><i>warm-up</i></p></body></html>";
+
+    private static volatile boolean warmedUp = false;
+
+    private final Semaphore permits;
+
+    private final PipelineMetrics metrics;
+
+    /**
+     * @param maxConcurrency the max number of PDF renders running at the same time
+     */
+    public Html2Pdf(int maxConcurrency, PipelineMetrics metrics) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("The max number of concurrent PDF renders must be positive: " + maxConcurrency);
+        }
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.metrics = metrics;
+    }
+
+    public Html2Pdf(int maxConcurrency) {
+        this(maxConcurrency, PipelineMetrics.NONE);
+    }
+
+    /**
+     * A renderer running up to one render per CPU at the same time.
+     */
+    public Html2Pdf() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Renders a small document, so that fonts and the default stylesheet are loaded
+     * before the first invoice is rendered. Subsequent calls do nothing.
+     */
+    public static synchronized void warmUp() {
+        if (warmedUp) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            createPdf(toDocument(WARM_UP_HTML));
+            logger.info("PDF renderer warmed up in {} ms", System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.warn("Cannot warm up the PDF renderer: {}", e.getMessage());
+        }
+        warmedUp = true;
+    }
+
     public Collection<Envelope<ByteArrayOutputStream>> render(Collection<Envelope<String>> htmls) throws Exception {
         Collection<Envelope<ByteArrayOutputStream>> out = new ArrayList<>();
         for (Envelope<String> html : htmls) {
@@ -22,18 +91,31 @@ public class Html2Pdf {
     public Envelope<ByteArrayOutputStream> render(Envelope<String> html) throws Exception {
 
         // prepare the html document
-        Document document = Jsoup.parse(html.getContent(), "UTF-8");
-        document.outputSettings().syntax(Document.OutputSettings.Syntax.xml);
+        Document document = toDocument(html.getContent());
 
+        this.permits.acquire();
+        try {
+            // return pdf
+            ByteArrayOutputStream pdf = this.metrics.timeStage(PipelineMetrics.PDF, () -> createPdf(document));
+            return new Envelope<ByteArrayOutputStream>(pdf, html.getName(), "pdf");
+        } finally {
+            this.permits.release();
+        }
+    }
+
+    private static ByteArrayOutputStream createPdf(Document document) throws IOException {
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         ITextRenderer renderer = new ITextRenderer();
         SharedContext sharedContext = renderer.getSharedContext();
         sharedContext.setPrint(true);
         sharedContext.setInteractive(false);
-        renderer.setDocumentFromString(document.html());
+        renderer.setDocument(document, null);
         renderer.layout();
         renderer.createPDF(outputStream);
-        // return html
-        return new Envelope<ByteArrayOutputStream>(outputStream, html.getName(), "pdf");
+        return outputStream;
+    }
+
+    private static Document toDocument(String html) {
+        return W3CDom.convert(Jsoup.parse(html));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,143 @@
+package it.eng.dome.invoicing.engine.service.render;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Renders many {@link RenderPipeline}s at the same time, handing the results back in the same
+ * order as the pipelines.
+ * <p>
+ * At most <code>window</code> pipelines are rendered ahead of the one the caller is consuming,
+ * so the memory held by rendered documents stays bounded however many pipelines are given.
+ * Sources other than pipelines (e.g. the bills whose BOMs are still to be built) can be given with a
+ * {@link Task} turning each one into its output, so that the work preparing a pipeline runs in the window too.
+ * <p>
+ * Tasks block on I/O and on the PDF renderer, so the executor should be a plain thread pool rather than a
+ * <code>ForkJoinPool</code>, whose workers are not meant to block.
+ */
+public class ParallelRenderer {
+
+    /**
+     * A rendering stage, usually a method reference like <code>RenderPipeline::getPdf</code>.
+     */
+    @FunctionalInterface
+    public interface Stage<T> {
+        T render(RenderPipeline pipeline) throws Exception;
+    }
+
+    /**
+     * Renders a source of any kind, e.g. building the pipeline of a bill and rendering it up to a stage.
+     */
+    @FunctionalInterface
+    public interface Task<S, T> {
+        T render(S source) throws Exception;
+    }
+
+    /**
+     * Consumes the output of the stage for each pipeline, in order, on the caller thread.
+     */
+    @FunctionalInterface
+    public interface Sink<T> {
+        void accept(T output) throws Exception;
+    }
+
+    private final ExecutorService executor;
+
+    private final int window;
+
+    public ParallelRenderer(ExecutorService executor, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("The render window must be positive: " + window);
+        }
+        this.executor = executor;
+        this.window = window;
+    }
+
+    /**
+     * Renders all the pipelines up to the given stage.
+     *
+     * @return the output of the stage for each pipeline, in the same order as the pipelines
+     * @throws Exception the first failure, in pipeline order
+     */
+    public <T> List<T> renderAll(List<RenderPipeline> pipelines, Stage<T> stage) throws Exception {
+        List<T> out = new ArrayList<>(pipelines.size());
+        this.forEach(pipelines.iterator(), stage::render, out::add);
+        return out;
+    }
+
+    /**
+     * Runs the task on each source, in the window, as {@link #renderAll(List, Stage)} does with pipelines.
+     * Sources are taken from the iterator on the caller thread, only as the window moves forward.
+     *
+     * @return the output of the task for each source, in the same order as the sources
+     * @throws Exception the first failure, in source order
+     */
+    public <S, T> List<T> renderAll(Iterator<S> sources, Task<S, T> task) throws Exception {
+        List<T> out = new ArrayList<>();
+        this.forEach(sources, task, out::add);
+        return out;
+    }
+
+    /**
+     * Renders the pipelines up to the given stage on the pool and passes the output of each one
+     * to the sink, in pipeline order. Stops at the first failure, of either a render or the sink:
+     * a stage that should not stop the others has to catch its own failures.
+     */
+    public <T> void renderEach(List<RenderPipeline> pipelines, Stage<T> stage, Sink<T> sink) throws Exception {
+        this.forEach(pipelines.iterator(), stage::render, sink);
+    }
+
+    /**
+     * Runs the task on each source, in the window, and passes the output of each one to the sink
+     * as {@link #renderEach(List, Stage, Sink)} does with pipelines. A failure of the iterator stops
+     * the rendering as well.
+     */
+    public <S, T> void renderEach(Iterator<S> sources, Task<S, T> task, Sink<T> sink) throws Exception {
+        this.forEach(sources, task, sink);
+    }
+
+    private <S, T> void forEach(Iterator<S> iterator, Task<S, T> task, Sink<T> consumer) throws Exception {
+        Deque<CompletableFuture<T>> pending = new ArrayDeque<>();
+        try {
+            while (iterator.hasNext() || !pending.isEmpty()) {
+                while (iterator.hasNext() && pending.size() < this.window) {
+                    pending.add(this.submit(iterator.next(), task));
+                }
+                consumer.accept(join(pending.poll()));
+            }
+        } finally {
+            // on failure, do not start the renders still queued
+            pending.forEach(future -> future.cancel(false));
+        }
+    }
+
+    private <S, T> CompletableFuture<T> submit(S source, Task<S, T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.render(source);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, this.executor);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+}
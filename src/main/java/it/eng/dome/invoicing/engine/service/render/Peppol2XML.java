@@ -7,6 +7,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import it.eng.dome.invoicing.engine.exception.PeppolValidationException;
+import it.eng.dome.invoicing.engine.metrics.PipelineMetrics;
 import peppol.bis.invoice3.api.PeppolBillingApi;
 import peppol.bis.invoice3.domain.Invoice;
 import peppol.bis.invoice3.validation.ValidationResult;
@@ -15,6 +16,16 @@ public class Peppol2XML {
 
     private static final Logger logger = LoggerFactory.getLogger(Peppol2XML.class);
 
+    private final PipelineMetrics metrics;
+
+    public Peppol2XML() {
+        this(PipelineMetrics.NONE);
+    }
+
+    public Peppol2XML(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     public Collection<Envelope<String>> render(Collection<Envelope<Invoice>> invoices) {
 		Collection<Envelope<String>> out = new ArrayList<>();
 		for (Envelope<Invoice> envInvoice : invoices) {
@@ -26,7 +37,7 @@ public class Peppol2XML {
     public Envelope<String> render(Envelope<Invoice> envInvoice) {
 		Invoice invoice = envInvoice.getContent();
         PeppolBillingApi<Invoice> api = PeppolBillingApi.create(invoice);
-        ValidationResult result = api.validate();
+        ValidationResult result = this.metrics.timeStage(PipelineMetrics.VALIDATION, api::validate);
 
         if (!result.isValid()) {
             StringBuilder sb = new StringBuilder("Validation error:\n");
@@ -37,6 +48,6 @@ public class Peppol2XML {
             throw new PeppolValidationException(sb.toString());
         }
 
-        return new Envelope<String>(api.prettyPrint(), envInvoice.getName(), "xml");
+        return new Envelope<String>(this.metrics.timeStage(PipelineMetrics.XML, api::prettyPrint), envInvoice.getName(), "xml");
     }
 }
@@ -1,29 +1,110 @@
 package it.eng.dome.invoicing.engine.service.render;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.URIResolver;
+import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Resolves the stylesheets and the code lists referenced by the stylesheet from the classpath.
+ * <p>
+ * Imported stylesheets are only resolved while the Templates are compiled, once. The code lists, loaded
+ * through document() by every transformation, never change: each one is parsed only once and its DOM is
+ * shared by all the transformations. The DOMs are fully expanded when parsed and never modified afterwards,
+ * so concurrent transformations only read them. The processor still builds its own tree of each code list
+ * on every transformation, but no longer reads and parses the XML.
+ */
 class ClasspathResourceURIResolver implements URIResolver {
 
+    private static final Map<String, Document> RESOURCES = new ConcurrentHashMap<>();
+
+    private static final DocumentBuilderFactory FACTORY = newFactory();
+
     @Override
     public Source resolve(String href, String base) throws TransformerException {
-        return new StreamSource(getClass().getClassLoader().getResourceAsStream("xsl/html/" + href));
+        if (href.endsWith(".xsl")) {
+            // parsed by the compiler itself, which handles whitespace and attributes as in the main stylesheet
+            byte[] stylesheet = read(href);
+            if (stylesheet == null) {
+                throw new TransformerException("Unable to find the resource xsl/html/" + href);
+            }
+            return new StreamSource(new ByteArrayInputStream(stylesheet), href);
+        }
+        Document resource = RESOURCES.computeIfAbsent(href, ClasspathResourceURIResolver::load);
+        if (resource == null) {
+            throw new TransformerException("Unable to find the resource xsl/html/" + href);
+        }
+        return new DOMSource(resource, href);
+    }
+
+    private static byte[] read(String href) {
+        try (InputStream is = ClasspathResourceURIResolver.class.getClassLoader().getResourceAsStream("xsl/html/" + href)) {
+            return is != null ? is.readAllBytes() : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Document load(String href) {
+        byte[] resource = read(href);
+        if (resource == null) {
+            return null;
+        }
+        try {
+            synchronized (FACTORY) {
+                return FACTORY.newDocumentBuilder().parse(new ByteArrayInputStream(resource), href);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException("Unable to parse the resource xsl/html/" + href, e);
+        }
+    }
+
+    private static DocumentBuilderFactory newFactory() {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            // build the whole tree while parsing: nodes expanded lazily would be written by concurrent readers
+            factory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+            return factory;
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("Cannot create the code list parser", e);
+        }
     }
 }
 
 public class PeppolXML2Html {
 
+    private static final URIResolver RESOLVER = new ClasspathResourceURIResolver();
+
+    // the compiled stylesheet, thread-safe and shared by all the renderers
+    private static volatile Templates templates;
+
     public Collection<Envelope<String>> render(Collection<Envelope<String>> envs) throws Exception {
         Collection<Envelope<String>> out = new ArrayList<>();
         for (Envelope<String> env : envs) {
@@ -34,19 +115,12 @@ public class PeppolXML2Html {
 
     public Envelope<String> render(Envelope<String> env) throws Exception {
 
-        // the stylesheet
-        InputStream is = getClass().getClassLoader().getResourceAsStream("xsl/html/render-billing-3.xsl");
-        Source xsl = new StreamSource(is);
-
         // the peppol xml
         Source peppolXML = new StreamSource(new StringReader(env.getContent()));
 
-        // the factory
-        TransformerFactory tFactory = TransformerFactory.newInstance();
-        tFactory.setURIResolver(new ClasspathResourceURIResolver());
-
-        // the transformer
-        Transformer transformer = tFactory.newTransformer(xsl);
+        // the transformer (cheap, as the stylesheet is already compiled)
+        Transformer transformer = getTemplates().newTransformer();
+        transformer.setURIResolver(RESOLVER);
 
         // prepare output
         StringWriter outWriter = new StringWriter();
@@ -58,4 +132,29 @@ public class PeppolXML2Html {
         return new Envelope<String>(outWriter.getBuffer().toString(), env.getName(), "html");
     }
 
+    private static Templates getTemplates() throws TransformerConfigurationException {
+        Templates compiled = templates;
+        if (compiled == null) {
+            synchronized (PeppolXML2Html.class) {
+                compiled = templates;
+                if (compiled == null) {
+                    // the stylesheet
+                    try (InputStream is = PeppolXML2Html.class.getClassLoader().getResourceAsStream("xsl/html/render-billing-3.xsl")) {
+                        Source xsl = new StreamSource(is);
+
+                        // the factory
+                        TransformerFactory tFactory = TransformerFactory.newInstance();
+                        tFactory.setURIResolver(RESOLVER);
+
+                        compiled = tFactory.newTemplates(xsl);
+                        templates = compiled;
+                    } catch (IOException e) {
+                        throw new TransformerConfigurationException("Unable to read the stylesheet xsl/html/render-billing-3.xsl", e);
+                    }
+                }
+            }
+        }
+        return compiled;
+    }
+
 }
@@ -0,0 +1,177 @@
+package it.eng.dome.invoicing.engine.service.render;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import it.eng.dome.invoicing.engine.metrics.PipelineMetrics;
+import it.eng.dome.invoicing.engine.model.InvoiceBom;
+import peppol.bis.invoice3.domain.Invoice;
+
+/**
+ * Renders a single BOM through the whole chain (BOM, PEPPOL invoice, XML, HTML, PDF).
+ * <p>
+ * Each stage is computed lazily, at most once, and reuses the output of the previous one:
+ * asking for the PDF after the XML only renders HTML and PDF on top of the XML already built.
+ * Instances are not thread-safe: they can be handed over to another thread once rendered
+ * (e.g. through a Future, see {@link ParallelRenderer}) but never used by two threads at once.
+ * <p>
+ * A pipeline can also start from {@link RenderedArtifacts} rendered earlier: stored artifacts are
+ * returned as they are, missing ones are rendered from the stored XML, so no BOM is needed.
+ * <p>
+ * The time of each stage and the size of the documents rendered are recorded in the {@link PipelineMetrics}.
+ * PDFs are rendered by the {@link Html2Pdf} given, which bounds the PDF renders running at the same time
+ * across all the pipelines sharing it, and times them once they start.
+ */
+public class RenderPipeline {
+
+    /**
+     * Artifacts of an invoice rendered earlier, e.g. by a previous export.
+     * Each method returns null if the artifact is not available.
+     */
+    public interface RenderedArtifacts {
+        String getBillId();
+        String getName();
+        Envelope<String> getXml();
+        Envelope<String> getHtml();
+        Envelope<ByteArrayOutputStream> getPdf();
+    }
+
+    private final Envelope<InvoiceBom> bom;
+
+    private final RenderedArtifacts artifacts;
+
+    private final PipelineMetrics metrics;
+
+    private final Html2Pdf html2Pdf;
+
+    private Envelope<Invoice> invoice;
+
+    private Envelope<String> xml;
+
+    private Envelope<String> html;
+
+    private Envelope<ByteArrayOutputStream> pdf;
+
+    public RenderPipeline(Envelope<InvoiceBom> bom) {
+        this(bom, PipelineMetrics.NONE, new Html2Pdf());
+    }
+
+    public RenderPipeline(Envelope<InvoiceBom> bom, PipelineMetrics metrics, Html2Pdf html2Pdf) {
+        if (bom == null) {
+            throw new IllegalArgumentException("InvoiceBom envelope cannot be null");
+        }
+        this.bom = bom;
+        this.artifacts = null;
+        this.metrics = metrics;
+        this.html2Pdf = html2Pdf;
+    }
+
+    public RenderPipeline(RenderedArtifacts artifacts) {
+        this(artifacts, PipelineMetrics.NONE, new Html2Pdf());
+    }
+
+    public RenderPipeline(RenderedArtifacts artifacts, PipelineMetrics metrics, Html2Pdf html2Pdf) {
+        if (artifacts == null) {
+            throw new IllegalArgumentException("RenderedArtifacts cannot be null");
+        }
+        this.bom = null;
+        this.artifacts = artifacts;
+        this.metrics = metrics;
+        this.html2Pdf = html2Pdf;
+    }
+
+    /**
+     * @return the name shared by all the envelopes produced by this pipeline
+     */
+    public String getName() {
+        return this.bom != null ? this.bom.getName() : this.artifacts.getName();
+    }
+
+    /**
+     * @return the id of the CustomerBill of the invoice
+     */
+    public String getBillId() {
+        return this.bom != null ? this.bom.getContent().getCustomerBill().getId() : this.artifacts.getBillId();
+    }
+
+    /**
+     * @return the BOM, or null if the pipeline starts from artifacts rendered earlier
+     */
+    public Envelope<InvoiceBom> getBom() {
+        return this.bom;
+    }
+
+    /**
+     * @return the artifacts rendered earlier the pipeline starts from, or null if it starts from a BOM
+     */
+    public RenderedArtifacts getArtifacts() {
+        return this.artifacts;
+    }
+
+    /**
+     * @return true if the pipeline starts from artifacts rendered earlier
+     */
+    public boolean isPrerendered() {
+        return this.artifacts != null;
+    }
+
+    public Envelope<Invoice> getInvoice() {
+        if (this.invoice == null) {
+            if (this.bom == null) {
+                throw new IllegalStateException("No BOM to render the PEPPOL invoice of: " + this.getName());
+            }
+            this.invoice = this.metrics.timeStage(PipelineMetrics.BOM_TO_PEPPOL, () -> new BomToPeppol().render(this.bom));
+        }
+        return this.invoice;
+    }
+
+    public Envelope<String> getXml() {
+        if (this.xml == null && this.artifacts != null) {
+            this.xml = this.artifacts.getXml();
+        }
+        if (this.xml == null) {
+            this.xml = new Peppol2XML(this.metrics).render(this.getInvoice());
+            this.metrics.recordSize("xml", this.xml.getContent());
+        }
+        return this.xml;
+    }
+
+    public Envelope<String> getHtml() throws Exception {
+        if (this.html == null && this.artifacts != null) {
+            this.html = this.artifacts.getHtml();
+        }
+        if (this.html == null) {
+            Envelope<String> xml = this.getXml();
+            this.html = this.metrics.timeStage(PipelineMetrics.XSLT, () -> new PeppolXML2Html().render(xml));
+            this.metrics.recordSize("html", this.html.getContent());
+        }
+        return this.html;
+    }
+
+    public Envelope<ByteArrayOutputStream> getPdf() throws Exception {
+        if (this.pdf == null && this.artifacts != null) {
+            this.pdf = this.artifacts.getPdf();
+        }
+        if (this.pdf == null) {
+            Envelope<String> html = this.getHtml();
+            // timed by the renderer, without the wait for a free slot
+            this.pdf = this.html2Pdf.render(html);
+            this.pdf.getContent().flush();
+            this.metrics.recordSize("pdf", this.pdf.getContent().size());
+        }
+        return this.pdf;
+    }
+
+    /**
+     * @return the XML, HTML and PDF envelopes rendered (or read) so far, without rendering anything
+     */
+    public List<Envelope<?>> getRendered() {
+        List<Envelope<?>> rendered = new ArrayList<>(3);
+        if (this.xml != null) rendered.add(this.xml);
+        if (this.html != null) rendered.add(this.html);
+        if (this.pdf != null) rendered.add(this.pdf);
+        return rendered;
+    }
+
+}
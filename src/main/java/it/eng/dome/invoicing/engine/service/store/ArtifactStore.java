@@ -0,0 +1,333 @@
+package it.eng.dome.invoicing.engine.service.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.gson.Gson;
+
+import it.eng.dome.invoicing.engine.service.render.Envelope;
+import it.eng.dome.invoicing.engine.service.render.RenderPipeline;
+import it.eng.dome.invoicing.engine.service.render.RenderPipeline.RenderedArtifacts;
+import it.eng.dome.tmforum.tmf678.v4.model.CustomerBill;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * File store of the invoices already rendered, so that unchanged invoices are not rendered again.
+ * <p>
+ * Invoices are keyed by CustomerBill id and revision (the <code>lastUpdate</code> of the bill): a bill
+ * updated after its invoice was stored is rendered again. The store directory holds
+ * <ul>
+ * <li><code>bills/</code>: one JSON manifest per bill, with its revision and the hash of each artifact;</li>
+ * <li><code>blobs/</code>: the XML, HTML and PDF artifacts, named after the SHA-256 of their content.</li>
+ * </ul>
+ * Files are written to a temporary file and then moved, so readers never see partial files. Blobs are
+ * never deleted: the directory grows with the number of distinct invoices.
+ * <p>
+ * The updates of the manifest of a bill are serialized by a lock of the bill id, so that formats stored at
+ * the same time by concurrent renders of the same bill are all kept. The lock is local to this instance:
+ * instances sharing the same directory may still lose formats to each other, which are then rendered and
+ * stored again on the next request.
+ * Failures of the store are logged and never fail a render.
+ */
+@Component
+public class ArtifactStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArtifactStore.class);
+
+    private static final Gson gson = new Gson();
+
+    // bills/<sha-256 of the bill id>.json
+    private static class Manifest {
+        String billId;
+        String revision;
+        String name;
+        // format (xml, html, pdf) => sha-256 of the content
+        Map<String, String> artifacts = new LinkedHashMap<>();
+    }
+
+    @Value("${artifact-store.enabled:false}")
+    private boolean enabled;
+
+    @Value("${artifact-store.dir:}")
+    private String dir;
+
+    private Path bills;
+    private Path blobs;
+
+    // serialize the updates of the manifests: the manifest of a bill is guarded by locks[hash of its id]
+    private final Object[] locks = new Object[64];
+
+    public ArtifactStore() {
+        for (int i = 0; i < this.locks.length; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    // an enabled store in the given directory, e.g. for tests
+    ArtifactStore(Path dir) {
+        this();
+        this.enabled = true;
+        this.dir = dir.toString();
+        this.init();
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!this.enabled) {
+            logger.info("ArtifactStore is DISABLED.");
+            return;
+        }
+        try {
+            Path root = this.dir.isBlank() ? Paths.get(System.getProperty("java.io.tmpdir"), "invoicing-artifacts") : Paths.get(this.dir);
+            this.bills = Files.createDirectories(root.resolve("bills"));
+            this.blobs = Files.createDirectories(root.resolve("blobs"));
+            logger.info("Initializing of ArtifactStore in {}", root);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to initialize the ArtifactStore in {}: {}. Invoices will always be rendered.", this.dir, e.getMessage());
+            this.enabled = false;
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Looks up the invoice of a bill.
+     *
+     * @return the artifacts stored for the current revision of the bill, or null if none
+     */
+    public RenderedArtifacts get(CustomerBill cb) {
+        String revision = revisionOf(cb);
+        if (!this.enabled || revision == null) {
+            return null;
+        }
+        try {
+            Manifest manifest = this.readManifest(cb.getId());
+            // the XML is enough to render the other formats
+            String xml = manifest != null && revision.equals(manifest.revision) ? manifest.artifacts.get("xml") : null;
+            if (xml == null || !Files.exists(this.blobPath(xml))) {
+                return null;
+            }
+            logger.debug("Found the invoice of bill {} (revision {}) in the ArtifactStore", cb.getId(), revision);
+            return new StoredArtifacts(manifest, revision);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to read the invoice of bill {} from the ArtifactStore: {}", cb.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the artifacts rendered so far by a pipeline, adding them to the ones already stored for the
+     * same revision of the bill. A pipeline starting from artifacts of this store only adds the formats
+     * rendered on top of them, or whose blob was missing, as long as its revision is still the stored one.
+     */
+    public void put(RenderPipeline pipeline) {
+        if (!this.enabled) {
+            return;
+        }
+        String billId;
+        String revision;
+        if (!pipeline.isPrerendered()) {
+            CustomerBill cb = pipeline.getBom().getContent().getCustomerBill();
+            billId = cb != null ? cb.getId() : null;
+            revision = revisionOf(cb);
+        } else if (pipeline.getArtifacts() instanceof StoredArtifacts stored) {
+            billId = stored.getBillId();
+            revision = stored.revision;
+        } else {
+            return;
+        }
+        if (revision == null) {
+            return;
+        }
+        try {
+            synchronized (this.lockOf(billId)) {
+                this.merge(billId, revision, pipeline);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to store the invoice of bill {} in the ArtifactStore: {}", billId, e.getMessage());
+        }
+    }
+
+    private void merge(String billId, String revision, RenderPipeline pipeline) throws IOException {
+        Manifest manifest = this.readManifest(billId);
+        if (manifest == null || !revision.equals(manifest.revision)) {
+            if (pipeline.isPrerendered()) {
+                // the bill was stored again, for another revision, since the artifacts were read
+                return;
+            }
+            manifest = new Manifest();
+            manifest.billId = billId;
+            manifest.revision = revision;
+        }
+        manifest.name = pipeline.getName();
+        boolean changed = false;
+        for (Envelope<?> envelope : pipeline.getRendered()) {
+            String hash = manifest.artifacts.get(envelope.getFormat());
+            if (hash == null || !Files.exists(this.blobPath(hash))) {
+                manifest.artifacts.put(envelope.getFormat(), this.writeBlob(toBytes(envelope.getContent())));
+                changed = true;
+            }
+        }
+        if (changed) {
+            this.writeAtomically(this.manifestPath(billId), gson.toJson(manifest).getBytes(StandardCharsets.UTF_8));
+            logger.debug("Stored {} of bill {} (revision {}) in the ArtifactStore", manifest.artifacts.keySet(), billId, revision);
+        }
+    }
+
+    private Object lockOf(String billId) {
+        return this.locks[Math.floorMod(billId.hashCode(), this.locks.length)];
+    }
+
+    private static String revisionOf(CustomerBill cb) {
+        return cb != null && cb.getId() != null && cb.getLastUpdate() != null ? cb.getLastUpdate().toString() : null;
+    }
+
+    private Manifest readManifest(String billId) throws IOException {
+        try (Reader reader = Files.newBufferedReader(this.manifestPath(billId), StandardCharsets.UTF_8)) {
+            Manifest manifest = gson.fromJson(reader, Manifest.class);
+            // guard against (very unlikely) hash collisions of the bill ids
+            return manifest != null && billId.equals(manifest.billId) ? manifest : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private Path manifestPath(String billId) {
+        return this.bills.resolve(sha256(billId.getBytes(StandardCharsets.UTF_8)) + ".json");
+    }
+
+    private Path blobPath(String hash) {
+        return this.blobs.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private String writeBlob(byte[] content) throws IOException {
+        String hash = sha256(content);
+        Path path = this.blobPath(hash);
+        if (!Files.exists(path)) {
+            Files.createDirectories(path.getParent());
+            this.writeAtomically(path, content);
+        }
+        return hash;
+    }
+
+    private void writeAtomically(Path path, byte[] content) throws IOException {
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, content);
+            try {
+                Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static byte[] toBytes(Object content) {
+        if (content instanceof String s) {
+            return s.getBytes(StandardCharsets.UTF_8);
+        }
+        if (content instanceof ByteArrayOutputStream baos) {
+            return baos.toByteArray();
+        }
+        throw new IllegalArgumentException("Unsupported content type: " + (content != null ? content.getClass().getName() : null));
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is required on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * Reads the blobs of a manifest when asked, so that e.g. a PDF export does not read the XML.
+     * Keeps the revision read, so that the formats rendered on top of them are stored for the same revision.
+     */
+    private class StoredArtifacts implements RenderedArtifacts {
+
+        private final Manifest manifest;
+
+        private final String revision;
+
+        StoredArtifacts(Manifest manifest, String revision) {
+            this.manifest = manifest;
+            this.revision = revision;
+        }
+
+        @Override
+        public String getBillId() {
+            return this.manifest.billId;
+        }
+
+        @Override
+        public String getName() {
+            return this.manifest.name;
+        }
+
+        @Override
+        public Envelope<String> getXml() {
+            byte[] content = this.read("xml");
+            return content != null ? new Envelope<>(new String(content, StandardCharsets.UTF_8), this.manifest.name, "xml") : null;
+        }
+
+        @Override
+        public Envelope<String> getHtml() {
+            byte[] content = this.read("html");
+            return content != null ? new Envelope<>(new String(content, StandardCharsets.UTF_8), this.manifest.name, "html") : null;
+        }
+
+        @Override
+        public Envelope<ByteArrayOutputStream> getPdf() {
+            byte[] content = this.read("pdf");
+            if (content == null) {
+                return null;
+            }
+            ByteArrayOutputStream pdf = new ByteArrayOutputStream(content.length);
+            pdf.writeBytes(content);
+            return new Envelope<>(pdf, this.manifest.name, "pdf");
+        }
+
+        private byte[] read(String format) {
+            String hash = this.manifest.artifacts.get(format);
+            if (hash == null) {
+                return null;
+            }
+            try {
+                return Files.readAllBytes(ArtifactStore.this.blobPath(hash));
+            } catch (NoSuchFileException e) {
+                // the blob was removed: render it again
+                logger.warn("Missing {} blob {} of bill {} in the ArtifactStore", format, hash, this.manifest.billId);
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read the " + format + " of bill " + this.manifest.billId + " from the ArtifactStore", e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,94 @@
+package it.eng.dome.invoicing.engine.service.utils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Money arithmetic shared by the tax calculation and the PEPPOL rendering, so that
+ * CustomerBills and invoices agree to the cent.
+ * <p>
+ * TMForum amounts are floats: they are converted to decimals through their shortest
+ * representation (<code>0.1f</code> is <code>0.1</code>), computed exactly and rounded only
+ * where the rules below say so.
+ * <ul>
+ * <li>line amounts are rounded to {@link #SCALE} decimals, {@link #ROUNDING};</li>
+ * <li>the tax of a line is the rounded line amount times the rate, rounded again;</li>
+ * <li>totals are sums of rounded amounts, so they need no further rounding.</li>
+ * </ul>
+ */
+public class MoneyUtils {
+
+    public static final int SCALE = 2;
+
+    public static final RoundingMode ROUNDING = RoundingMode.HALF_UP;
+
+    public static final BigDecimal ZERO = BigDecimal.ZERO.setScale(SCALE, ROUNDING);
+
+    private MoneyUtils() {
+    }
+
+    /**
+     * Converts a number to a decimal, without rounding.
+     *
+     * @return the decimal, or zero if the number is null
+     */
+    public static BigDecimal toDecimal(Number n) {
+        if (n == null) {
+            return BigDecimal.ZERO;
+        }
+        if (n instanceof BigDecimal bd) {
+            return bd;
+        }
+        return new BigDecimal(n.toString());
+    }
+
+    /**
+     * Converts a monetary amount to a decimal with {@link #SCALE} decimals.
+     *
+     * @return the rounded amount, or zero if the number is null
+     */
+    public static BigDecimal toAmount(Number n) {
+        return round(toDecimal(n));
+    }
+
+    /**
+     * Converts a tax rate (a fraction, e.g. 0.255) to a decimal, without rounding.
+     */
+    public static BigDecimal toRate(Number n) {
+        return toDecimal(n);
+    }
+
+    public static BigDecimal round(BigDecimal amount) {
+        return amount.setScale(SCALE, ROUNDING);
+    }
+
+    /**
+     * Computes the tax of a line.
+     *
+     * @param amount the tax excluded amount of the line
+     * @param rate the tax rate, as a fraction
+     * @return the tax amount, with {@link #SCALE} decimals
+     */
+    public static BigDecimal taxOf(BigDecimal amount, BigDecimal rate) {
+        return round(round(amount).multiply(rate));
+    }
+
+    /**
+     * Converts an amount to a number of cents (i.e. units of the {@link #SCALE}-th decimal), rounding it.
+     */
+    public static long toCents(BigDecimal amount) {
+        return round(amount).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal fromCents(long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    /**
+     * Formats an amount with {@link #SCALE} decimals (e.g. "1234.56").
+     */
+    public static String format(BigDecimal amount) {
+        return round(amount).toPlainString();
+    }
+
+}
@@ -0,0 +1,128 @@
+package it.eng.dome.invoicing.engine.service.utils;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Iterates over all the items of a paginated TMForum list, fetching one page at a time.
+ * <p>
+ * With an executor, the next page is fetched in background as soon as the current one is
+ * handed over, so it is usually ready by the time the caller has processed the current page;
+ * at most two pages are held at any time. Without an executor, pages are fetched on the
+ * caller thread.
+ * <p>
+ * A page shorter than the page size is the last one. Fetch failures are thrown by
+ * {@link #hasNext()} as a {@link CompletionException} wrapping the cause.
+ */
+public class PageIterator<T> implements Iterator<T> {
+
+    /**
+     * Fetches a page, e.g. <code>(offset, limit) -&gt; api.listCustomerBills(null, offset, limit, filter)</code>.
+     */
+    @FunctionalInterface
+    public interface PageFetcher<T> {
+        List<T> fetch(int offset, int limit) throws Exception;
+    }
+
+    private final PageFetcher<T> fetcher;
+    private final int pageSize;
+    private final Executor executor;
+
+    private List<T> page = Collections.emptyList();
+    private int index;
+    // the page being fetched, null once the last page has been taken
+    private CompletableFuture<List<T>> next;
+    private int offset;
+
+    public PageIterator(PageFetcher<T> fetcher, int pageSize, Executor executor) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("The page size must be positive: " + pageSize);
+        }
+        this.fetcher = fetcher;
+        this.pageSize = pageSize;
+        this.executor = executor;
+        this.next = this.fetch(0);
+    }
+
+    public PageIterator(PageFetcher<T> fetcher, int pageSize) {
+        this(fetcher, pageSize, null);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (this.index == this.page.size()) {
+            if (this.next == null) {
+                return false;
+            }
+            List<T> items = this.next.join();
+            this.offset += items.size();
+            // prefetch the next page while the caller processes this one
+            this.next = items.size() < this.pageSize ? null : this.fetch(this.offset);
+            this.page = items;
+            this.index = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Tells how many items are left, if known without fetching further pages, i.e. when the
+     * current page is the last one. Waits for the current page.
+     *
+     * @return the number of items left, or -1 if there are more pages
+     */
+    public int remainingIfKnown() {
+        boolean more = this.hasNext();
+        if (this.next != null) {
+            return -1;
+        }
+        return more ? this.page.size() - this.index : 0;
+    }
+
+    @Override
+    public T next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.page.get(this.index++);
+    }
+
+    /**
+     * Stops prefetching, when the remaining items are no longer needed.
+     */
+    public void cancel() {
+        if (this.next != null) {
+            this.next.cancel(false);
+            this.next = null;
+        }
+        this.page = Collections.emptyList();
+        this.index = 0;
+    }
+
+    private CompletableFuture<List<T>> fetch(int offset) {
+        if (this.executor == null) {
+            try {
+                return CompletableFuture.completedFuture(this.call(offset));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e instanceof CompletionException ? e.getCause() : e);
+            }
+        }
+        return CompletableFuture.supplyAsync(() -> this.call(offset), this.executor);
+    }
+
+    private List<T> call(int offset) {
+        try {
+            List<T> items = this.fetcher.fetch(offset, this.pageSize);
+            return items != null ? items : Collections.emptyList();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+}
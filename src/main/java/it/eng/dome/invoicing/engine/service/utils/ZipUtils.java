@@ -3,6 +3,7 @@ package it.eng.dome.invoicing.engine.service.utils;
 import it.eng.dome.invoicing.engine.service.render.Envelope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.util.StreamUtils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -16,6 +17,8 @@ import java.util.zip.ZipOutputStream;
  * <p>
  * Supports exporting a set of envelopes to a single ZIP file ({@link #createZip})
  * or building a ZIP that contains one nested ZIP per invoice ({@link #zipPerInvoice}).
+ * For large archives, {@link #writeEntry} and {@link #writeNestedZip} write entries
+ * one at a time to an open stream, so that nothing but the current entry is held in memory.
  */
 public class ZipUtils {
 
@@ -37,29 +40,7 @@ public class ZipUtils {
 
 			if (envelopes != null) {
 				for (Envelope<?> env : envelopes) {
-					if (env == null)
-						continue;
-
-					String name = env.getName();
-					String format = env.getFormat();
-					Object content = env.getContent();
-					if (name == null || format == null || content == null)
-						continue;
-
-					String fileName = name + "." + format;
-					zos.putNextEntry(new ZipEntry(fileName));
-
-					if (content instanceof String s) {
-						zos.write(s.getBytes(StandardCharsets.UTF_8));
-					} else if (content instanceof ByteArrayOutputStream b) {
-						zos.write(b.toByteArray());
-					} else if (content instanceof byte[] bytes) {
-						zos.write(bytes);
-					} else {
-						throw new IllegalArgumentException("Unsupported content type: " + content.getClass());
-					}
-
-					zos.closeEntry();
+					writeEntry(zos, env);
 				}
 			}
 
@@ -68,6 +49,78 @@ public class ZipUtils {
 		}
 	}
 
+    /**
+     * Writes a single {@link Envelope} as a new entry of an open ZIP stream.
+     * <p>
+     * The entry is named after the envelope name and format (e.g. <code>INV001.xml</code>).
+     * Envelopes with a null name, format or content are skipped.
+     *
+     * @param zos the ZIP stream to write to
+     * @param env the envelope to write
+     * @throws IOException if an I/O error occurs while writing the entry
+     */
+	public static void writeEntry(ZipOutputStream zos, Envelope<?> env) throws IOException {
+		if (env == null)
+			return;
+
+		writeEntry(zos, env.getName(), env);
+	}
+
+    /**
+     * Writes a single {@link Envelope} as a new entry of an open ZIP stream, under the given name
+     * instead of the envelope one, e.g. to keep the entries of an archive unique.
+     *
+     * @param zos the ZIP stream to write to
+     * @param name the name of the entry, without extension (the envelope format is appended)
+     * @param env the envelope to write
+     * @throws IOException if an I/O error occurs while writing the entry
+     */
+	public static void writeEntry(ZipOutputStream zos, String name, Envelope<?> env) throws IOException {
+		if (env == null)
+			return;
+
+		String format = env.getFormat();
+		Object content = env.getContent();
+		if (name == null || format == null || content == null)
+			return;
+
+		String fileName = name + "." + format;
+		zos.putNextEntry(new ZipEntry(fileName));
+
+		if (content instanceof String s) {
+			zos.write(s.getBytes(StandardCharsets.UTF_8));
+		} else if (content instanceof ByteArrayOutputStream b) {
+			b.writeTo(zos);
+		} else if (content instanceof byte[] bytes) {
+			zos.write(bytes);
+		} else {
+			throw new IllegalArgumentException("Unsupported content type: " + content.getClass());
+		}
+
+		zos.closeEntry();
+	}
+
+    /**
+     * Writes a nested ZIP, containing the given envelopes, as a new entry of an open ZIP stream.
+     * <p>
+     * The nested archive is deflated straight into the parent stream, without being buffered first.
+     *
+     * @param zos the parent ZIP stream
+     * @param name the name of the nested archive (<code>.zip</code> is appended)
+     * @param envelopes the envelopes to include in the nested archive
+     * @throws IOException if an I/O error occurs while writing the entry
+     */
+	public static void writeNestedZip(ZipOutputStream zos, String name, Collection<? extends Envelope<?>> envelopes) throws IOException {
+		zos.putNextEntry(new ZipEntry(name + ".zip"));
+		try (ZipOutputStream nested = new ZipOutputStream(StreamUtils.nonClosing(zos))) {
+			for (Envelope<?> env : envelopes) {
+				writeEntry(nested, env);
+			}
+			nested.finish();
+		}
+		zos.closeEntry();
+	}
+
     /**
      * Builds a ZIP archive containing one nested ZIP per invoice.
      * <p>
@@ -4,6 +4,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
@@ -11,7 +12,9 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 
 
+import io.micrometer.core.instrument.MeterRegistry;
 import it.eng.dome.brokerage.billing.utils.UrlPathUtils;
+import okhttp3.OkHttpClient;
 
 @Component(value = "tmfApiFactory")
 @Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
@@ -63,6 +66,10 @@ public final class TmfApiFactory implements InitializingBean {
 	@Value( "${tmforumapi.tmf678_billing_path}" )
 	private String tmf678CustomerBillPath;
 	
+	// request metrics of the API clients
+	@Autowired
+	private MeterRegistry meterRegistry;
+	
 	private it.eng.dome.tmforum.tmf620.v4.ApiClient apiClientTmf620;
 	private it.eng.dome.tmforum.tmf629.v4.ApiClient apiClientTmf629;
 	private it.eng.dome.tmforum.tmf632.v4.ApiClient apiClientTmf632;
@@ -84,6 +91,7 @@ public final class TmfApiFactory implements InitializingBean {
 			
 			apiClientTmf620.setBasePath(basePath + "/" + tmf620ProductCatalogManagementPath);
 			log.debug("Invoke Product Catalog API at endpoint: " + apiClientTmf620.getBasePath());
+			apiClientTmf620.setHttpClient(this.instrument(apiClientTmf620.getHttpClient(), "tmf620", apiClientTmf620.getBasePath()));
 		}
 		
 		return apiClientTmf620;
@@ -102,6 +110,7 @@ public final class TmfApiFactory implements InitializingBean {
 			
 			apiClientTmf629.setBasePath(basePath + "/" + tmf629CustomerManagementPath);
 			log.debug("Invoke Catalog API at endpoint: " + apiClientTmf629.getBasePath());
+			apiClientTmf629.setHttpClient(this.instrument(apiClientTmf629.getHttpClient(), "tmf629", apiClientTmf629.getBasePath()));
 		}
 		
 		return apiClientTmf629;
@@ -120,6 +129,7 @@ public final class TmfApiFactory implements InitializingBean {
 			
 			apiClientTmf632.setBasePath(basePath + "/" + tmf632PartyManagementPath);
 			log.debug("Invoke Party API at endpoint: " + apiClientTmf632.getBasePath());
+			apiClientTmf632.setHttpClient(this.instrument(apiClientTmf632.getHttpClient(), "tmf632", apiClientTmf632.getBasePath()));
 		}
 		
 		return apiClientTmf632;
@@ -138,6 +148,7 @@ public final class TmfApiFactory implements InitializingBean {
 			
 			apiClientTmf637.setBasePath(basePath + "/" + tmf637ProductInventoryPath);
 			log.debug("Invoke Product Inventory API at endpoint: " + apiClientTmf637.getBasePath());
+			apiClientTmf637.setHttpClient(this.instrument(apiClientTmf637.getHttpClient(), "tmf637", apiClientTmf637.getBasePath()));
 		}
 		
 		return apiClientTmf637;
@@ -156,6 +167,7 @@ public final class TmfApiFactory implements InitializingBean {
 			
 			apiClientTmf651.setBasePath(basePath + "/" + tmf651AgreementManagementPath);
 			log.debug("Invoke Agreement API at endpoint: " + apiClientTmf651.getBasePath());
+			apiClientTmf651.setHttpClient(this.instrument(apiClientTmf651.getHttpClient(), "tmf651", apiClientTmf651.getBasePath()));
 		}
 		
 		return apiClientTmf651;
@@ -174,6 +186,7 @@ public final class TmfApiFactory implements InitializingBean {
 
 			apiClientTmf666.setBasePath(basePath + "/" + tmf666AccountManagementPath);
 			log.debug("Invoke Agreement API at endpoint: " + apiClientTmf666.getBasePath());
+			apiClientTmf666.setHttpClient(this.instrument(apiClientTmf666.getHttpClient(), "tmf666", apiClientTmf666.getBasePath()));
 		}
 
 		return apiClientTmf666;
@@ -192,12 +205,17 @@ public final class TmfApiFactory implements InitializingBean {
 
 			apiClientTmf678.setBasePath(basePath + "/" + tmf678CustomerBillPath);
 			log.debug("Invoke Customer Billing API at endpoint: " + apiClientTmf678.getBasePath());
+			apiClientTmf678.setHttpClient(this.instrument(apiClientTmf678.getHttpClient(), "tmf678", apiClientTmf678.getBasePath()));
 		}
 		return apiClientTmf678;
 	}
 
 	
 		
+	private OkHttpClient instrument(OkHttpClient httpClient, String api, String basePath) {
+		return httpClient.newBuilder().addInterceptor(new TmfClientMetrics(meterRegistry, api, basePath)).build();
+	}
+	
 	@Override
 	public void afterPropertiesSet() throws Exception {
 		
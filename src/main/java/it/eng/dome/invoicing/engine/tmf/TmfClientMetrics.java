@@ -0,0 +1,100 @@
+package it.eng.dome.invoicing.engine.tmf;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * OkHttp interceptor measuring the requests of the client of a TMForum API:
+ * <ul>
+ * <li><code>invoicing.tmf.client.requests</code>: timer, with a histogram, by <code>method</code>, <code>endpoint</code>
+ * and <code>status</code>;</li>
+ * <li><code>invoicing.tmf.client.errors</code>: counter of the failures and of the HTTP errors, by <code>endpoint</code>
+ * and <code>error</code>;</li>
+ * <li><code>invoicing.tmf.client.in.flight</code>: gauge of the requests in progress.</li>
+ * </ul>
+ * All the meters are tagged with the <code>api</code>. The endpoint is the resource after the base path of the API,
+ * with the id replaced by a placeholder, e.g. <code>productOffering/{id}</code>.
+ * <p>
+ * The requests issued to build the BOMs are also timed, by API only, by <code>invoicing.tmf.requests</code> (see
+ * <code>PipelineMetrics</code>).
+ */
+public class TmfClientMetrics implements Interceptor {
+
+    private final MeterRegistry registry;
+    private final String api;
+    // number of path segments of the base path, before the resource
+    private final int baseSegments;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * @param api the API, e.g. tmf620
+     * @param basePath the base path of the API client
+     */
+    public TmfClientMetrics(MeterRegistry registry, String api, String basePath) {
+        this.registry = registry;
+        this.api = api;
+        String path = URI.create(basePath).getPath();
+        this.baseSegments = path == null ? 0 : (int) Arrays.stream(path.split("/")).filter(s -> !s.isEmpty()).count();
+        Gauge.builder("invoicing.tmf.client.in.flight", this.inFlight, AtomicInteger::get)
+                .description("TMForum requests in progress")
+                .tag("api", api)
+                .register(registry);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String endpoint = this.getEndpoint(request);
+        Timer.Sample sample = Timer.start(this.registry);
+        String status = "none";
+        String error = null;
+        this.inFlight.incrementAndGet();
+        try {
+            Response response = chain.proceed(request);
+            status = String.valueOf(response.code());
+            if (response.code() >= 400) {
+                error = status;
+            }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            error = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            this.inFlight.decrementAndGet();
+            sample.stop(Timer.builder("invoicing.tmf.client.requests")
+                    .description("Requests to the TMForum APIs")
+                    .tags("api", this.api, "method", request.method(), "endpoint", endpoint, "status", status)
+                    .publishPercentileHistogram()
+                    .register(this.registry));
+            if (error != null) {
+                Counter.builder("invoicing.tmf.client.errors")
+                        .description("Failed requests to the TMForum APIs")
+                        .tags("api", this.api, "method", request.method(), "endpoint", endpoint, "error", error)
+                        .register(this.registry)
+                        .increment();
+            }
+        }
+    }
+
+    private String getEndpoint(Request request) {
+        List<String> segments = request.url().pathSegments();
+        if (segments.size() <= this.baseSegments) {
+            return "/";
+        }
+        String resource = segments.get(this.baseSegments);
+        return segments.size() > this.baseSegments + 1 ? resource + "/{id}" : resource;
+    }
+
+}
@@ -0,0 +1,48 @@
+package it.eng.dome.invoicing.tedb;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/**
+ * Ehcache serializer storing the TEDB models as JSON, the same way TEDB returns them:
+ * the models don't need to be {@link java.io.Serializable}.
+ */
+public class GsonSerializer<T> implements Serializer<T> {
+
+    private static final Gson gson = new GsonBuilder().create();
+
+    private final Class<T> type;
+
+    public GsonSerializer(Class<T> type) {
+        this.type = type;
+    }
+
+    @Override
+    public ByteBuffer serialize(T object) throws SerializerException {
+        return ByteBuffer.wrap(gson.toJson(object, this.type).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public T read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+        byte[] bytes = new byte[binary.remaining()];
+        binary.get(bytes);
+        try {
+            return gson.fromJson(new String(bytes, StandardCharsets.UTF_8), this.type);
+        } catch (JsonParseException e) {
+            throw new SerializerException(e);
+        }
+    }
+
+    @Override
+    public boolean equals(T object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+        return this.serialize(object).equals(binary);
+    }
+
+}
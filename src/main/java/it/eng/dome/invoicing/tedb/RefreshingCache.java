@@ -0,0 +1,214 @@
+package it.eng.dome.invoicing.tedb;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import org.ehcache.Cache;
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Loading front-end of an Ehcache {@link Cache}.
+ * <ul>
+ * <li>single-flight: concurrent misses for the same key share one load;</li>
+ * <li>stale-while-revalidate: entries older than the refresh interval are still served,
+ * while a single background load replaces them.</li>
+ * </ul>
+ * The Ehcache expiry must be longer than the refresh interval: the difference is how long a stale
+ * entry can be served when reloading keeps failing (e.g. TEDB is down).
+ * <p>
+ * Once bound to a {@link MeterRegistry}, lookups are counted in <code>invoicing.tedb.cache</code> by
+ * <code>result</code> (hit, stale or miss) and the entries removed by Ehcache in
+ * <code>invoicing.tedb.cache.evictions</code> by <code>cause</code> (evicted or expired), tagged with the cache name.
+ */
+public class RefreshingCache<V> implements MeterBinder {
+
+    /**
+     * Loads the value of a key, e.g. calling TEDB.
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load() throws IOException, InterruptedException;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(RefreshingCache.class);
+
+    private final String name;
+    private final Cache<String, V> cache;
+    private final long refreshAfterMillis;
+    private final Executor executor;
+
+    // loads in progress, by key
+    private final Map<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    // when the cached value of each key was loaded, pruned when Ehcache removes the entry
+    private final Map<String, Long> loadedAt = new ConcurrentHashMap<>();
+
+    // not registered anywhere until bound
+    private volatile Counter hits;
+    private volatile Counter staleHits;
+    private volatile Counter misses;
+    private volatile Counter evictions;
+    private volatile Counter expirations;
+
+    public RefreshingCache(String name, Cache<String, V> cache, Duration refreshAfter, Executor executor) {
+        this.name = name;
+        this.cache = cache;
+        this.refreshAfterMillis = refreshAfter.toMillis();
+        this.executor = executor;
+        this.bindTo(new CompositeMeterRegistry());
+        this.cache.getRuntimeConfiguration().registerCacheEventListener(this::onRemoval, EventOrdering.UNORDERED, EventFiring.ASYNCHRONOUS,
+                EnumSet.of(EventType.EVICTED, EventType.EXPIRED));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.hits = this.lookups(registry, "hit");
+        this.staleHits = this.lookups(registry, "stale");
+        this.misses = this.lookups(registry, "miss");
+        this.evictions = this.removals(registry, "evicted");
+        this.expirations = this.removals(registry, "expired");
+    }
+
+    private Counter lookups(MeterRegistry registry, String result) {
+        return Counter.builder("invoicing.tedb.cache")
+                .description("Lookups of the TEDB caches")
+                .tags("cache", this.name, "result", result)
+                .register(registry);
+    }
+
+    private Counter removals(MeterRegistry registry, String cause) {
+        return Counter.builder("invoicing.tedb.cache.evictions")
+                .description("Entries removed from the TEDB caches by Ehcache")
+                .tags("cache", this.name, "cause", cause)
+                .register(registry);
+    }
+
+    private void onRemoval(CacheEvent<? extends String, ? extends V> event) {
+        (event.getType() == EventType.EVICTED ? this.evictions : this.expirations).increment();
+        // events are asynchronous: if the key was loaded again meanwhile, its new value is only refreshed once more
+        this.loadedAt.remove(event.getKey());
+    }
+
+    /**
+     * Returns the cached value of the key, loading it if missing.
+     * A stale value is returned as is and reloaded in background.
+     */
+    public V get(String key, Loader<V> loader) throws IOException, InterruptedException {
+        V value = this.cache.get(key);
+        if (value != null) {
+            if (this.isStale(key)) {
+                this.staleHits.increment();
+                this.refresh(key, loader);
+            } else {
+                this.hits.increment();
+            }
+            return value;
+        }
+        this.misses.increment();
+        return this.load(key, loader);
+    }
+
+    private boolean isStale(String key) {
+        // values loaded before a restart (i.e. from a persistent tier) have no load time
+        Long time = this.loadedAt.get(key);
+        return time == null || System.currentTimeMillis() - time >= this.refreshAfterMillis;
+    }
+
+    private V load(String key, Loader<V> loader) throws IOException, InterruptedException {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = this.inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            logger.debug("Waiting for the load in progress of {}", key);
+            return await(existing);
+        }
+        try {
+            // a load may have completed between the cache lookup and putIfAbsent
+            V value = this.cache.get(key);
+            if (value == null) {
+                logger.debug("Cache MISS for {}", key);
+                value = this.store(key, loader.load());
+            }
+            flight.complete(value);
+            return value;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.inFlight.remove(key, flight);
+        }
+    }
+
+    private void refresh(String key, Loader<V> loader) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        if (this.inFlight.putIfAbsent(key, flight) != null) {
+            return;
+        }
+        logger.debug("Cache STALE for {}, refreshing", key);
+        try {
+            this.executor.execute(() -> {
+                try {
+                    flight.complete(this.store(key, loader.load()));
+                } catch (Exception e) {
+                    logger.warn("Unable to refresh {}, serving the stale value: {}", key, e.getMessage());
+                    flight.completeExceptionally(e);
+                } finally {
+                    this.inFlight.remove(key, flight);
+                }
+            });
+        } catch (RuntimeException e) {
+            // rejected: the next lookup will try again
+            flight.completeExceptionally(e);
+            this.inFlight.remove(key, flight);
+        }
+    }
+
+    private V store(String key, V value) {
+        // Ehcache does not store nulls
+        if (value != null) {
+            // timed before the put: its removal event, even if delivered at once, finds the load time to prune
+            this.loadedAt.put(key, System.currentTimeMillis());
+            this.cache.put(key, value);
+        }
+        return value;
+    }
+
+    // number of keys with a load time, for tests
+    int loadTimes() {
+        return this.loadedAt.size();
+    }
+
+    private static <V> V await(CompletableFuture<V> flight) throws IOException, InterruptedException {
+        try {
+            return flight.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioe) {
+                throw ioe;
+            }
+            if (cause instanceof InterruptedException ie) {
+                throw ie;
+            }
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+
+}
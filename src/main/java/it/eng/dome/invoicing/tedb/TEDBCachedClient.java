@@ -1,8 +1,11 @@
 package it.eng.dome.invoicing.tedb;
 
+import java.io.File;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.Calendar;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.ehcache.Cache;
 import org.ehcache.CacheManager;
@@ -11,22 +14,57 @@ import org.ehcache.config.builders.CacheConfigurationBuilder;
 import org.ehcache.config.builders.CacheManagerBuilder;
 import org.ehcache.config.builders.ExpiryPolicyBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import it.eng.dome.invoicing.tedb.model.Configurations;
 import it.eng.dome.invoicing.tedb.model.SearchResult;
 import it.eng.dome.invoicing.tedb.model.TaxRate;
 
-public class TEDBCachedClient extends TEDBClient {
+/**
+ * A {@link TEDBClient} caching the TEDB responses through {@link RefreshingCache}s: concurrent misses
+ * share one request, and expired entries are served while they are reloaded in background
+ * (for up to {@link #STALE_GRACE} after their expiry).
+ * <p>
+ * The caches can be given a persistent disk tier, so they are still warm after a restart:
+ * {@link #close()} must then be called on shutdown, or Ehcache discards the disk tier at the next start.
+ */
+public class TEDBCachedClient extends TEDBClient implements AutoCloseable {
+
+    /**
+     * The max number of entries on heap of a cache, and how long they are served before being refreshed.
+     */
+    public record CacheSettings(int size, Duration ttl) {
+    }
+
+    public static final CacheSettings DEFAULT_CONFIG_CACHE = new CacheSettings(10, Duration.ofDays(5));
+    public static final CacheSettings DEFAULT_SEARCH_RESULT_CACHE = new CacheSettings(100, Duration.ofDays(1));
+    public static final CacheSettings DEFAULT_TAX_RATE_CACHE = new CacheSettings(100, Duration.ofDays(1));
+
+    // how long an expired entry can still be served while it cannot be reloaded
+    public static final Duration STALE_GRACE = Duration.ofDays(1);
 
     private final Logger logger = LoggerFactory.getLogger(TEDBCachedClient.class);
 
     private CacheManager cacheManager;
 
-    private Cache<String, Configurations> configCache;
-    private Cache<String, SearchResult> searchResultCache;
-    private Cache<String, TaxRate> taxRateCache;
+    // directory of the persistent disk tier, null if caches are on heap only
+    private File diskPath;
+    // max size of each cache on disk
+    private long diskSizeMB;
+
+    private CacheSettings configCacheSettings = DEFAULT_CONFIG_CACHE;
+    private CacheSettings searchResultCacheSettings = DEFAULT_SEARCH_RESULT_CACHE;
+    private CacheSettings taxRateCacheSettings = DEFAULT_TAX_RATE_CACHE;
+
+    private ExecutorService refreshExecutor;
+
+    private RefreshingCache<Configurations> configCache;
+    private RefreshingCache<SearchResult> searchResultCache;
+    private RefreshingCache<TaxRate> taxRateCache;
 
     public TEDBCachedClient() {
         super();
@@ -38,65 +76,124 @@ public class TEDBCachedClient extends TEDBClient {
         this.initCaches();
     }
 
+    public TEDBCachedClient(String url, Duration connectTimeout, Duration requestTimeout) {
+        super(url, connectTimeout, requestTimeout);
+        this.initCaches();
+    }
+
+    /**
+     * @param diskPath the directory of the persistent disk tier of the caches, null for heap only caches
+     * @param diskSizeMB the max size of each cache on disk, in MB
+     */
+    public TEDBCachedClient(String url, Duration connectTimeout, Duration requestTimeout, File diskPath, long diskSizeMB) {
+        this(url, connectTimeout, requestTimeout, diskPath, diskSizeMB, DEFAULT_CONFIG_CACHE, DEFAULT_SEARCH_RESULT_CACHE, DEFAULT_TAX_RATE_CACHE);
+    }
+
+    /**
+     * @param diskPath the directory of the persistent disk tier of the caches, null for heap only caches
+     * @param diskSizeMB the max size of each cache on disk, in MB
+     * @param configCache the settings of the cache of the TEDB configurations
+     * @param searchResultCache the settings of the cache of the tax searches
+     * @param taxRateCache the settings of the cache of the tax rates
+     */
+    public TEDBCachedClient(String url, Duration connectTimeout, Duration requestTimeout, File diskPath, long diskSizeMB,
+            CacheSettings configCache, CacheSettings searchResultCache, CacheSettings taxRateCache) {
+        super(url, connectTimeout, requestTimeout);
+        this.diskPath = diskPath;
+        this.diskSizeMB = diskSizeMB;
+        this.configCacheSettings = configCache;
+        this.searchResultCacheSettings = searchResultCache;
+        this.taxRateCacheSettings = taxRateCache;
+        this.initCaches();
+    }
+
     private void initCaches() {
 
-        this.cacheManager = CacheManagerBuilder.newCacheManagerBuilder().build();
-        this.cacheManager.init();
+        if (this.diskPath != null) {
+            try {
+                this.cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+                        .with(CacheManagerBuilder.persistence(this.diskPath))
+                        .build(true);
+                logger.info("TEDB caches persisted in {} (max {} MB each)", this.diskPath, this.diskSizeMB);
+            } catch (RuntimeException e) {
+                // e.g. the directory is not writable, or locked by another instance
+                logger.warn("Unable to persist the TEDB caches in {}, using heap only caches: {}", this.diskPath, e.getMessage());
+                this.diskPath = null;
+            }
+        }
+        if (this.diskPath == null) {
+            this.cacheManager = CacheManagerBuilder.newCacheManagerBuilder().build();
+            this.cacheManager.init();
+        }
 
-        // size: 10, ttl: 5 days
-        CacheConfiguration<String, Configurations> cconfig1 = CacheConfigurationBuilder
-                .newCacheConfigurationBuilder(String.class, Configurations.class, ResourcePoolsBuilder.heap(10))
-                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(5)))
-                .build();
-        this.configCache = this.cacheManager.createCache("configCache", cconfig1);
+        this.refreshExecutor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "tedb-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
 
-        // size: 100, ttl: 2 days
-        CacheConfiguration<String, SearchResult> cconfig2 = CacheConfigurationBuilder
-                .newCacheConfigurationBuilder(String.class, SearchResult.class, ResourcePoolsBuilder.heap(100))
-                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(1)))
-                .build();
-        this.searchResultCache = this.cacheManager.createCache("searchResultCache", cconfig2);
+        this.configCache = this.createCache("configCache", Configurations.class, this.configCacheSettings);
+        this.searchResultCache = this.createCache("searchResultCache", SearchResult.class, this.searchResultCacheSettings);
+        this.taxRateCache = this.createCache("taxRateCache", TaxRate.class, this.taxRateCacheSettings);
 
-        // size: 100, ttl: 1 day
-        CacheConfiguration<String, TaxRate> cconfig3 = CacheConfigurationBuilder
-                .newCacheConfigurationBuilder(String.class, TaxRate.class, ResourcePoolsBuilder.heap(100))
-                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(1)))
+    }
+
+    private <V> RefreshingCache<V> createCache(String name, Class<V> valueType, CacheSettings settings) {
+        int size = settings.size();
+        Duration ttl = settings.ttl();
+        CacheConfigurationBuilder<String, V> builder;
+        if (this.diskPath != null) {
+            ResourcePoolsBuilder pools = ResourcePoolsBuilder.newResourcePoolsBuilder()
+                    .heap(size, EntryUnit.ENTRIES)
+                    .disk(this.diskSizeMB, MemoryUnit.MB, true);
+            builder = CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, valueType, pools)
+                    .withValueSerializer(new GsonSerializer<>(valueType));
+        } else {
+            builder = CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, valueType, ResourcePoolsBuilder.heap(size));
+        }
+        CacheConfiguration<String, V> config = builder
+                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(ttl.plus(STALE_GRACE)))
                 .build();
-        this.taxRateCache = this.cacheManager.createCache("taxRateCache", cconfig3);
+        Cache<String, V> cache = this.cacheManager.createCache(name, config);
+        logger.debug("Created cache {}: size {}, ttl {}", name, size, ttl);
+        return new RefreshingCache<>(name, cache, ttl, this.refreshExecutor);
+    }
 
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        super.bindTo(registry);
+        this.configCache.bindTo(registry);
+        this.searchResultCache.bindTo(registry);
+        this.taxRateCache.bindTo(registry);
     }
 
     @Override
     public Configurations getConfigurations() throws IOException, InterruptedException {
         String key = "unique";
-        if (!this.configCache.containsKey(key)) {
-            logger.debug("Cache MISS for configurations.");
-            Configurations configs = super.getConfigurations();
-            this.configCache.put(key, configs);
-        }
-        return this.configCache.get(key);
+        return this.configCache.get(key, super::getConfigurations);
     }
 
     @Override
     public SearchResult searchTaxes(String tedbCountryId, String taxType, Calendar date) throws IOException, InterruptedException {
         String key = tedbCountryId + "_" +taxType + "_" +date.get(Calendar.YEAR) + "." + date.get(Calendar.DAY_OF_YEAR);
-        if (!this.searchResultCache.containsKey(key)) {
-            logger.debug("Cache MISS for " + key);
-            SearchResult sr = super.searchTaxes(tedbCountryId, taxType, date);
-            this.searchResultCache.put(key, sr);
-        }
-        return this.searchResultCache.get(key);
+        // the date may be changed by the caller while a background refresh is running
+        Calendar situationOn = (Calendar) date.clone();
+        return this.searchResultCache.get(key, () -> super.searchTaxes(tedbCountryId, taxType, situationOn));
     }
 
     @Override
     public TaxRate getTaxRate(String taxId, String versionDate) throws IOException, InterruptedException {
         String key = taxId + "_" + versionDate;
-        if (!this.taxRateCache.containsKey(key)) {
-            logger.debug("Cache MISS for " + key);
-            TaxRate sr = super.getTaxRate(taxId, versionDate);
-            this.taxRateCache.put(key, sr);
-        }
-        return this.taxRateCache.get(key);
+        return this.taxRateCache.get(key, () -> super.getTaxRate(taxId, versionDate));
+    }
+
+    /**
+     * Stops the background refreshes and closes the caches, flushing the disk tier if any.
+     */
+    @Override
+    public void close() {
+        this.refreshExecutor.shutdownNow();
+        this.cacheManager.close();
     }
 
 }
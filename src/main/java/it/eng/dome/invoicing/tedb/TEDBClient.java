@@ -6,48 +6,134 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.text.ParseException;
+import java.time.Duration;
 import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.stereotype.Component;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
 import it.eng.dome.invoicing.tedb.model.Configurations;
 import it.eng.dome.invoicing.tedb.model.Country;
 import it.eng.dome.invoicing.tedb.model.SearchResult;
 import it.eng.dome.invoicing.tedb.model.TaxRate;
 import it.eng.dome.invoicing.tedb.model.TaxVersion;
 
-@Component
-public class TEDBClient implements TEDB {
+/**
+ * Client of the TEDB (Taxes in Europe Database) REST API.
+ * <p>
+ * Each instance keeps a single HTTP/2-capable {@link HttpClient}, so connections and TLS sessions
+ * are reused across requests: create one instance and share it.
+ * <p>
+ * Once bound to a {@link MeterRegistry}, the requests are measured by endpoint:
+ * <code>invoicing.tedb.requests</code> (timer, with a histogram), <code>invoicing.tedb.errors</code> (counter of the
+ * failures and of the HTTP errors) and <code>invoicing.tedb.requests.in.flight</code> (gauge), all tagged with the
+ * <code>client</code> class, so the requests of the cached client can be told from the others.
+ */
+public class TEDBClient implements TEDB, MeterBinder {
+
+    public static final String DEFAULT_URL = "https://ec.europa.eu/taxation_customs/tedb/rest-api";
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
 
-    private static final String DEFAULT_URL = "https://ec.europa.eu/taxation_customs/tedb/rest-api";
     private static final Logger log = LoggerFactory.getLogger(TEDBClient.class);
+
+    // Gson is thread-safe and caches its type adapters
+    private static final Gson gson = new GsonBuilder().create();
+
     private String url;
+    private final HttpClient client;
+    private final Duration requestTimeout;
+
+    // records nothing until bound
+    private volatile MeterRegistry meterRegistry = new CompositeMeterRegistry();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
 
     public TEDBClient() {
-        this.url = DEFAULT_URL;
+        this(DEFAULT_URL);
     }
 
     public TEDBClient(String url) {
+        this(url, DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    public TEDBClient(String url, Duration connectTimeout, Duration requestTimeout) {
         this.url = url;
+        this.requestTimeout = requestTimeout;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.meterRegistry = registry;
+        Gauge.builder("invoicing.tedb.requests.in.flight", this.inFlight, AtomicInteger::get)
+                .description("TEDB requests in progress")
+                .tag("client", this.getClass().getSimpleName())
+                .register(registry);
+    }
+
+    /*
+     * Sends a request to an endpoint of TEDB, measuring it.
+     */
+    private HttpResponse<String> send(String endpoint, HttpRequest request) throws IOException, InterruptedException {
+        MeterRegistry registry = this.meterRegistry;
+        String client = this.getClass().getSimpleName();
+        Timer.Sample sample = Timer.start(registry);
+        String status = "none";
+        String error = null;
+        this.inFlight.incrementAndGet();
+        try {
+            HttpResponse<String> response = this.client.send(request, HttpResponse.BodyHandlers.ofString());
+            status = String.valueOf(response.statusCode());
+            if (response.statusCode() >= 400) {
+                error = status;
+            }
+            return response;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            error = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            this.inFlight.decrementAndGet();
+            sample.stop(Timer.builder("invoicing.tedb.requests")
+                    .description("Requests to TEDB")
+                    .tags("client", client, "endpoint", endpoint, "status", status)
+                    .publishPercentileHistogram()
+                    .register(registry));
+            if (error != null) {
+                Counter.builder("invoicing.tedb.errors")
+                        .description("Failed requests to TEDB")
+                        .tags("client", client, "endpoint", endpoint, "error", error)
+                        .register(registry)
+                        .increment();
+            }
+        }
     }
 
     public Configurations getConfigurations() throws IOException, InterruptedException {
 
-        HttpClient client = HttpClient.newHttpClient();
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(this.url+"/configurations"))
+                .timeout(this.requestTimeout)
                 .GET()
                 .header("Accept", "application/json")
                 .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = this.send("configurations", request);
 
-        Gson gson = new GsonBuilder().create();
         Configurations configs = gson.fromJson(response.body(), Configurations.class);
 //        verifyAsConfiguratinos(response.body());
 
@@ -66,8 +152,6 @@ public class TEDBClient implements TEDB {
      */
     public SearchResult searchTaxes(String tedbCountryId, String taxType, Calendar date) throws InterruptedException, IOException, IllegalArgumentException{
 
-        HttpClient client = HttpClient.newHttpClient();
-
         String situationOn = String.format("%s/%s/%s", date.get(Calendar.YEAR), date.get(Calendar.MONTH)+1, date.get(Calendar.DAY_OF_MONTH));
 
         String body = "{\"searchForm\":{\"selectedTaxTypes\":[\"" + taxType + "\"],\"selectedMemberStates\":["
@@ -76,15 +160,15 @@ public class TEDBClient implements TEDB {
 
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(this.url+"/simpleSearch"))
+                .timeout(this.requestTimeout)
                 .POST(HttpRequest.BodyPublishers.ofString(body))
                 .header("Accept", "application/json")
                 .header("Content-Type", "application/json")
                 .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = this.send("simpleSearch", request);
 //        verifyAsSearchResult(response.body());
 
         try {
-                Gson gson = new GsonBuilder().create();
                 SearchResult searchResult = gson.fromJson(response.body(), SearchResult.class);
                 return searchResult;
         } catch (JsonSyntaxException e) {
@@ -104,15 +188,14 @@ public class TEDBClient implements TEDB {
      */
     public TaxRate getTaxRate(String taxId, String versionDate) throws IOException, InterruptedException, IllegalArgumentException {
 
-        HttpClient client = HttpClient.newHttpClient();
-
         String url = String.format(this.url + "/tax/rate?taxId=%s&versionDate=%s&isEuro=true", taxId, versionDate);
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(url))
+                .timeout(this.requestTimeout)
                 .GET()
                 .header("Accept", "application/json")
                 .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = this.send("tax/rate", request);
 //        verifyAsTaxRate(response.body());
 
         if(response.statusCode()==400) {
@@ -121,7 +204,6 @@ public class TEDBClient implements TEDB {
         }
 
         try {
-                Gson gson = new GsonBuilder().create();
                 TaxRate taxRate = gson.fromJson(response.body(), TaxRate.class);
                 if(taxRate!=null && taxRate.getVatRateStructure()==null) {
                         String msg = String.format("Bad request. Unable to retrive tax rate for tax '%s', version '%s'", taxId, versionDate);
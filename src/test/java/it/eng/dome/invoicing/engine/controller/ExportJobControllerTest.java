@@ -0,0 +1,164 @@
+package it.eng.dome.invoicing.engine.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import it.eng.dome.invoicing.engine.model.ExportJob;
+import it.eng.dome.invoicing.engine.service.ExportJobService;
+
+/**
+ * Status codes of the export job endpoints, with the jobs of a fake {@link ExportJobService}.
+ */
+public class ExportJobControllerTest {
+
+    @TempDir
+    Path dir;
+
+    // job id => job
+    private final Map<String, ExportJob> jobs = new HashMap<>();
+
+    private boolean rejecting;
+
+    private ExportJobController controller;
+
+    @BeforeEach
+    public void setUp() {
+        this.controller = new ExportJobController();
+        this.controller.exportJobService = new FakeExportJobService();
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/invoicing/exports");
+        request.setQueryString("format=pdf");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    public void acceptsAJobWithItsLocation() {
+        ResponseEntity<?> response = this.controller.submit(null, "urn:buyer", "pdf", null, null);
+
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        ExportJob job = (ExportJob) response.getBody();
+        assertEquals("http://localhost/invoicing/exports/" + job.getId(), response.getHeaders().getLocation().toString());
+    }
+
+    @Test
+    public void rejectsUnsupportedFormats() {
+        ResponseEntity<?> response = this.controller.submit(null, null, "csv", null, null);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void answersUnavailableWhenTheQueueIsFull() {
+        this.rejecting = true;
+
+        ResponseEntity<?> response = this.controller.submit(null, null, "pdf", null, null);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+    }
+
+    @Test
+    public void returnsTheJob() {
+        ExportJob job = this.job("job-1");
+
+        ResponseEntity<ExportJob> response = this.controller.getJob("job-1");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertSame(job, response.getBody());
+    }
+
+    @Test
+    public void answersNotFoundForUnknownJobs() {
+        assertEquals(HttpStatus.NOT_FOUND, this.controller.getJob("unknown").getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, this.controller.getArchive("unknown").getStatusCode());
+    }
+
+    @Test
+    public void answersConflictUntilTheJobIsCompleted() {
+        ExportJob job = this.job("job-1");
+        assertEquals(HttpStatus.CONFLICT, this.controller.getArchive("job-1").getStatusCode());
+
+        job.start();
+        assertEquals(HttpStatus.CONFLICT, this.controller.getArchive("job-1").getStatusCode());
+
+        job.fail("TMF not available");
+        assertEquals(HttpStatus.CONFLICT, this.controller.getArchive("job-1").getStatusCode());
+    }
+
+    @Test
+    public void downloadsTheArchiveOfACompletedJob() throws Exception {
+        ExportJob job = this.job("job-1");
+        job.start();
+        job.rendering("invoices-pdf.zip");
+        Files.write(this.dir.resolve("job-1.zip"), new byte[] { 'P', 'K', 5, 6 });
+        job.complete(4);
+
+        ResponseEntity<?> response = this.controller.getArchive("job-1");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(4, response.getHeaders().getContentLength());
+        assertEquals("attachment; filename=\"invoices-pdf.zip\"", response.getHeaders().getContentDisposition().toString());
+        assertEquals(this.dir.resolve("job-1.zip").toFile(), ((FileSystemResource) response.getBody()).getFile());
+    }
+
+    @Test
+    public void answersNotFoundWhenTheArchiveWasRemoved() {
+        ExportJob job = this.job("job-1");
+        job.start();
+        job.complete(4);
+
+        assertEquals(HttpStatus.NOT_FOUND, this.controller.getArchive("job-1").getStatusCode());
+    }
+
+    private ExportJob job(String id) {
+        ExportJob job = new ExportJob(id, "pdf", null, null, null, null);
+        this.jobs.put(id, job);
+        return job;
+    }
+
+    private class FakeExportJobService extends ExportJobService {
+
+        @Override
+        public ExportJob submit(String format, String buyerId, String sellerId, OffsetDateTime fromDate, OffsetDateTime toDate) {
+            if (!"pdf".equals(format)) {
+                throw new IllegalArgumentException("Unsupported output format: " + format);
+            }
+            if (ExportJobControllerTest.this.rejecting) {
+                throw new RejectedExecutionException();
+            }
+            return ExportJobControllerTest.this.job("job-" + (ExportJobControllerTest.this.jobs.size() + 1));
+        }
+
+        @Override
+        public ExportJob getJob(String id) {
+            return ExportJobControllerTest.this.jobs.get(id);
+        }
+
+        @Override
+        public Path getArchive(ExportJob job) {
+            return ExportJobControllerTest.this.dir.resolve(job.getId() + ".zip");
+        }
+    }
+
+}
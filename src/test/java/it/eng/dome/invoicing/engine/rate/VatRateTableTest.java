@@ -0,0 +1,202 @@
+package it.eng.dome.invoicing.engine.rate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import it.eng.dome.invoicing.tedb.TEDBClient;
+import it.eng.dome.invoicing.tedb.model.Configurations;
+import it.eng.dome.invoicing.tedb.model.Country;
+import it.eng.dome.invoicing.tedb.model.Rate;
+import it.eng.dome.invoicing.tedb.model.SearchResult;
+import it.eng.dome.invoicing.tedb.model.StandardRate;
+import it.eng.dome.invoicing.tedb.model.TaxRate;
+import it.eng.dome.invoicing.tedb.model.TaxVersion;
+import it.eng.dome.invoicing.tedb.model.VatRateStructure;
+
+public class VatRateTableTest {
+
+    private static final String SNAPSHOT = """
+            {
+              "asOf": "2025-08-01",
+              "rates": {
+                "DE": [ { "from": "2020-01-01", "rate": "0.19" },
+                        { "from": "2020-07-01", "rate": "0.16" },
+                        { "from": "2021-01-01", "rate": "0.19" } ],
+                "GR": [ { "from": "2020-01-01", "rate": "0.24" } ],
+                "IT": [ { "from": "2020-01-01", "rate": "0.22" } ]
+              },
+              "aliases": { "EL": "GR" }
+            }
+            """;
+
+    // country code => [version date, rate] reported by TEDB
+    private final Map<String, String[]> tedbRates = new HashMap<>();
+
+    private int configurationRequests;
+
+    private boolean tedbDown;
+
+    private VatRateTable table;
+
+    @BeforeEach
+    public void setUp() {
+        this.table = new VatRateTable(new FakeTEDBClient());
+        this.table.load(new StringReader(SNAPSHOT));
+    }
+
+    @Test
+    public void looksUpTheIntervalOfTheDate() {
+        assertNull(this.table.getStandardRate("DE", LocalDate.of(2019, 12, 31)));
+        assertEquals(new BigDecimal("0.19"), this.table.getStandardRate("DE", LocalDate.of(2020, 6, 30)));
+        assertEquals(new BigDecimal("0.16"), this.table.getStandardRate("DE", LocalDate.of(2020, 7, 1)));
+        assertEquals(new BigDecimal("0.16"), this.table.getStandardRate("DE", LocalDate.of(2020, 12, 31)));
+        assertEquals(new BigDecimal("0.19"), this.table.getStandardRate("DE", LocalDate.of(2021, 1, 1)));
+    }
+
+    @Test
+    public void looksUpCountriesByAliasAndInAnyCase() {
+        assertEquals(new BigDecimal("0.24"), this.table.getStandardRate("EL", LocalDate.of(2024, 1, 1)));
+        assertEquals(new BigDecimal("0.24"), this.table.getStandardRate(" el ", LocalDate.of(2024, 1, 1)));
+        assertEquals(new BigDecimal("0.22"), this.table.getStandardRate("it", LocalDate.of(2024, 1, 1)));
+        assertNull(this.table.getStandardRate("CH", LocalDate.of(2024, 1, 1)));
+    }
+
+    @Test
+    public void readsTheDayOfACalendar() {
+        Calendar date = Calendar.getInstance();
+        date.set(2020, Calendar.JULY, 1, 0, 30);
+        assertEquals(new BigDecimal("0.16"), this.table.getStandardRate("DE", date));
+    }
+
+    @Test
+    public void answersTheDatesAfterTheSnapshotWithTheLatestRate() {
+        assertEquals(new BigDecimal("0.22"), this.table.getStandardRate("IT", LocalDate.of(2025, 8, 2)));
+        assertEquals(new BigDecimal("0.19"), this.table.getStandardRate("DE", LocalDate.of(2030, 1, 1)));
+    }
+
+    @Test
+    public void keepsAnsweringWhenTedbIsDown() {
+        this.tedbDown = true;
+
+        this.table.refresh(LocalDate.of(2026, 1, 10));
+
+        assertEquals(new BigDecimal("0.22"), this.table.getStandardRate("IT", LocalDate.of(2026, 1, 10)));
+    }
+
+    @Test
+    public void fetchesTheTedbCountriesOncePerRefresh() {
+        this.tedbRates.put("IT", new String[] { "2013-10-01", "22%" });
+        this.tedbRates.put("DE", new String[] { "2021-01-01", "19%" });
+        this.tedbRates.put("GR", new String[] { "2016-06-01", "24%" });
+
+        this.table.refresh(LocalDate.of(2026, 1, 10));
+
+        assertEquals(1, this.configurationRequests);
+    }
+
+    @Test
+    public void addsTheChangedRateFromTheDateOfItsVersion() {
+        this.tedbRates.put("IT", new String[] { "2026-01-01", "24%" });
+
+        this.table.refresh(LocalDate.of(2026, 1, 10));
+
+        assertEquals(new BigDecimal("0.22"), this.table.getStandardRate("IT", LocalDate.of(2025, 12, 31)));
+        assertEquals(0, new BigDecimal("0.24").compareTo(this.table.getStandardRate("IT", LocalDate.of(2026, 1, 1))));
+        assertEquals(0, new BigDecimal("0.24").compareTo(this.table.getStandardRate("IT", LocalDate.of(2026, 1, 10))));
+    }
+
+    @Test
+    public void leavesTheChangesOfUnknownDateToTedb() {
+        this.tedbRates.put("IT", new String[] { "next year", "24%" });
+
+        this.table.refresh(LocalDate.of(2026, 1, 10));
+
+        assertEquals(new BigDecimal("0.22"), this.table.getStandardRate("IT", LocalDate.of(2025, 8, 1)));
+        assertNull(this.table.getStandardRate("IT", LocalDate.of(2025, 8, 2)));
+        // the other countries are not affected
+        assertEquals(new BigDecimal("0.24"), this.table.getStandardRate("GR", LocalDate.of(2026, 1, 10)));
+    }
+
+    @Test
+    public void answersAgainOnceTheChangeIsSettled() {
+        this.tedbRates.put("IT", new String[] { "next year", "24%" });
+        this.table.refresh(LocalDate.of(2026, 1, 10));
+
+        this.tedbRates.put("IT", new String[] { "2026-01-01", "24%" });
+        this.table.refresh(LocalDate.of(2026, 1, 11));
+
+        assertEquals(0, new BigDecimal("0.24").compareTo(this.table.getStandardRate("IT", LocalDate.of(2026, 2, 1))));
+    }
+
+    @Test
+    public void readsTheVersionDatesOfTedb() {
+        assertEquals(LocalDate.of(2026, 1, 1), VatRateTable.parseVersionDate("2026-01-01"));
+        assertEquals(LocalDate.of(2026, 1, 1), VatRateTable.parseVersionDate("2026-01-01T00:00:00.000+0100"));
+        assertEquals(LocalDate.of(2026, 1, 1), VatRateTable.parseVersionDate("2026/1/1"));
+        assertEquals(LocalDate.of(2026, 1, 2), VatRateTable.parseVersionDate("02/01/2026"));
+        assertNull(VatRateTable.parseVersionDate("next year"));
+        assertNull(VatRateTable.parseVersionDate(null));
+    }
+
+    private class FakeTEDBClient extends TEDBClient {
+
+        // TEDB country id => country code
+        private final List<String> ids = new ArrayList<>();
+
+        @Override
+        public Configurations getConfigurations() throws IOException {
+            VatRateTableTest.this.configurationRequests++;
+            if (VatRateTableTest.this.tedbDown) {
+                throw new IOException("TEDB not available");
+            }
+            Configurations configurations = new Configurations();
+            configurations.countries = new ArrayList<>();
+            for (String code : VatRateTableTest.this.tedbRates.keySet()) {
+                if (!this.ids.contains(code)) {
+                    this.ids.add(code);
+                }
+                Country country = new Country();
+                country.id = this.ids.indexOf(code);
+                country.defaultCountryCode = code.toLowerCase();
+                configurations.countries.add(country);
+            }
+            return configurations;
+        }
+
+        @Override
+        public SearchResult searchTaxes(String tedbCountryId, String taxType, Calendar date) {
+            String code = this.ids.get(Integer.parseInt(tedbCountryId));
+            TaxVersion version = new TaxVersion();
+            version.taxId = code;
+            version.versionDate = VatRateTableTest.this.tedbRates.get(code)[0];
+            SearchResult result = new SearchResult();
+            result.result = List.of(version);
+            return result;
+        }
+
+        @Override
+        public TaxRate getTaxRate(String taxId, String versionDate) throws IOException {
+            Rate rate = new Rate();
+            rate.value = VatRateTableTest.this.tedbRates.get(taxId)[1];
+            TaxRate taxRate = new TaxRate();
+            taxRate.vatRateStructure = new VatRateStructure();
+            taxRate.vatRateStructure.standardRate = new StandardRate();
+            taxRate.vatRateStructure.standardRate.rate = rate;
+            return taxRate;
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package it.eng.dome.invoicing.engine.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import it.eng.dome.tmforum.tmf678.v4.model.CustomerBill;
+import it.eng.dome.tmforum.tmf678.v4.model.RelatedParty;
+
+public class BillQueryTest {
+
+    private static final OffsetDateTime FROM = OffsetDateTime.parse("2025-01-01T00:00:00.123+01:00");
+    private static final OffsetDateTime TO = OffsetDateTime.parse("2025-01-31T23:59:59.999+01:00");
+
+    @Test
+    public void filtersByTheIdOfThePartyOnly() {
+        BillQuery query = new BillQuery("urn:buyer", "urn:seller", null, null);
+
+        assertEquals(Map.of("relatedParty.id", "urn:buyer"), query.getFilter(BillQuery.BUYER));
+        assertEquals(Map.of("relatedParty.id", "urn:seller"), query.getFilter(BillQuery.SELLER));
+    }
+
+    @Test
+    public void filtersByDateOnlyWithoutRole() {
+        BillQuery query = new BillQuery("urn:buyer", null, FROM, TO);
+
+        assertEquals(Map.of("billDate>= ", "2025-01-01T00:00+01:00", "billDate<= ", "2025-01-31T23:59:59+01:00"),
+                query.getFilter(null));
+    }
+
+    @Test
+    public void leavesOutThePartiesNotInTheQuery() {
+        BillQuery query = new BillQuery(null, "urn:seller", FROM, null);
+
+        assertEquals(Map.of("billDate>= ", "2025-01-01T00:00+01:00"), query.getFilter(BillQuery.BUYER));
+    }
+
+    @Test
+    public void matchesAnyBillWithoutParties() {
+        BillQuery query = new BillQuery(null, null, FROM, TO);
+
+        assertTrue(query.matches(bill()));
+    }
+
+    @Test
+    public void matchesTheRolesInAnyCase() {
+        BillQuery query = new BillQuery("urn:buyer", "urn:seller", null, null);
+
+        assertTrue(query.matches(bill("urn:seller", "SELLER", "urn:buyer", "buyer")));
+    }
+
+    @Test
+    public void checksBothParties() {
+        BillQuery query = new BillQuery("urn:buyer", "urn:seller", null, null);
+
+        assertTrue(query.matches(bill("urn:buyer", "Buyer", "urn:seller", "Seller")));
+        assertFalse(query.matches(bill("urn:buyer", "Buyer", "urn:other", "Seller")));
+        assertFalse(query.matches(bill("urn:buyer", "Buyer")));
+    }
+
+    @Test
+    public void checksTheRoleOfTheSamePartyAsTheId() {
+        BillQuery query = new BillQuery("urn:buyer", null, null, null);
+
+        // the id and the role are both there, but on different parties
+        assertFalse(query.matches(bill("urn:buyer", "Seller", "urn:other", "Buyer")));
+        assertFalse(query.matches(bill("urn:buyer", null)));
+    }
+
+    @Test
+    public void rejectsBillsWithoutRelatedParties() {
+        BillQuery query = new BillQuery(null, "urn:seller", null, null);
+
+        assertFalse(query.matches(bill()));
+        assertFalse(query.matches(bill((String) null, "Seller")));
+    }
+
+    // a bill with the given (id, role) pairs as related parties, none if no pair is given
+    private static CustomerBill bill(String... parties) {
+        CustomerBill cb = new CustomerBill();
+        if (parties.length == 0) {
+            return cb;
+        }
+        List<RelatedParty> relatedParties = new ArrayList<>();
+        for (int i = 0; i < parties.length; i += 2) {
+            RelatedParty rp = new RelatedParty();
+            rp.setId(parties[i]);
+            rp.setRole(parties[i + 1]);
+            relatedParties.add(rp);
+        }
+        cb.setRelatedParty(relatedParties);
+        return cb;
+    }
+
+}
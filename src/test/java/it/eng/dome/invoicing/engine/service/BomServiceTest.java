@@ -0,0 +1,210 @@
+package it.eng.dome.invoicing.engine.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import it.eng.dome.brokerage.api.APIPartyApis;
+import it.eng.dome.brokerage.api.AccountManagementApis;
+import it.eng.dome.brokerage.api.AppliedCustomerBillRateApis;
+import it.eng.dome.brokerage.api.CustomerBillApis;
+import it.eng.dome.brokerage.api.ProductCatalogManagementApis;
+import it.eng.dome.brokerage.api.ProductInventoryApis;
+import it.eng.dome.invoicing.engine.metrics.PipelineMetrics;
+import it.eng.dome.invoicing.engine.model.InvoiceBom;
+import it.eng.dome.tmforum.tmf620.v4.model.ProductOffering;
+import it.eng.dome.tmforum.tmf632.v4.model.Organization;
+import it.eng.dome.tmforum.tmf637.v4.model.Product;
+import it.eng.dome.tmforum.tmf637.v4.model.ProductOfferingRef;
+import it.eng.dome.tmforum.tmf666.v4.model.BillingAccount;
+import it.eng.dome.tmforum.tmf678.v4.model.AppliedCustomerBillingRate;
+import it.eng.dome.tmforum.tmf678.v4.model.CustomerBill;
+import it.eng.dome.tmforum.tmf678.v4.model.ProductRef;
+import it.eng.dome.tmforum.tmf678.v4.model.RelatedParty;
+
+/**
+ * BOMs of the bills of an export, built on fake TMForum APIs: one seller and one buyer, with
+ * every bill charging its own product of the same offering twice.
+ */
+public class BomServiceTest {
+
+    private static final int BILLS = 250;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    // API => number of requests
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    private final BomService service = new BomService(new FakePartyApis(), new FakeProductInventoryApis(), new FakeCustomerBillApis(),
+            new FakeAppliedCustomerBillRateApis(), new FakeProductCatalogManagementApis(), new FakeAccountManagementApis(),
+            this.executor, PipelineMetrics.NONE);
+
+    @AfterEach
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void cachesOnlyTheEntitiesRepeatedAcrossTheBills() throws Exception {
+        try (BomService.Bills bills = this.service.getBillsFor("urn:buyer", null, null, null)) {
+            int boms = 0;
+            while (bills.hasNext()) {
+                InvoiceBom bom = this.service.getBomFor(bills.next(), bills.getCache()).getContent();
+                assertEquals("Seller Ltd", bom.getOrganizationWithRole("Seller").getTradingName());
+                boms++;
+            }
+
+            assertEquals(BILLS, boms);
+            // one offering, two organizations and their billing accounts, whatever the number of bills
+            assertEquals(5, bills.getCache().size());
+        }
+        assertEquals(1, this.requests("offering"));
+        assertEquals(2, this.requests("organization"));
+    }
+
+    @Test
+    public void retrievesTheProductsOfEachBillOnce() throws Exception {
+        try (BomService.Bills bills = this.service.getBillsFor("urn:buyer", null, null, null)) {
+            while (bills.hasNext()) {
+                this.service.getBomFor(bills.next(), bills.getCache());
+            }
+        }
+
+        // each product is charged twice by its bill
+        assertEquals(BILLS, this.requests("product"));
+    }
+
+    private int requests(String api) {
+        return this.requests.getOrDefault(api, new AtomicInteger()).get();
+    }
+
+    private void count(String api) {
+        this.requests.computeIfAbsent(api, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private static RelatedParty party(String id, String role) {
+        RelatedParty party = new RelatedParty();
+        party.setId(id);
+        party.setRole(role);
+        return party;
+    }
+
+    private class FakeCustomerBillApis extends CustomerBillApis {
+
+        FakeCustomerBillApis() {
+            super(new it.eng.dome.tmforum.tmf678.v4.ApiClient());
+        }
+
+        @Override
+        public List<CustomerBill> listCustomerBills(String fields, int offset, int limit, Map<String, String> filter) {
+            List<CustomerBill> bills = new ArrayList<>();
+            for (int i = offset; i < Math.min(offset + limit, BILLS); i++) {
+                CustomerBill cb = new CustomerBill();
+                cb.setId("urn:bill:" + i);
+                cb.setBillDate(OffsetDateTime.parse("2025-01-01T00:00:00Z"));
+                cb.setRelatedParty(new ArrayList<>(List.of(party("urn:seller", "Seller"), party("urn:buyer", "Buyer"))));
+                bills.add(cb);
+            }
+            return bills;
+        }
+    }
+
+    private class FakeAppliedCustomerBillRateApis extends AppliedCustomerBillRateApis {
+
+        FakeAppliedCustomerBillRateApis() {
+            super(new it.eng.dome.tmforum.tmf678.v4.ApiClient());
+        }
+
+        @Override
+        public List<AppliedCustomerBillingRate> listAppliedCustomerBillingRates(String fields, int offset, int limit, Map<String, String> filter) {
+            List<AppliedCustomerBillingRate> acbrs = new ArrayList<>();
+            if (offset > 0) {
+                return acbrs;
+            }
+            String billId = filter.get("bill.id");
+            for (int i = 0; i < 2; i++) {
+                ProductRef product = new ProductRef();
+                product.setId("urn:product:" + billId);
+                AppliedCustomerBillingRate acbr = new AppliedCustomerBillingRate();
+                acbr.setId(billId + ":acbr:" + i);
+                acbr.setProduct(product);
+                acbrs.add(acbr);
+            }
+            return acbrs;
+        }
+    }
+
+    private class FakeProductInventoryApis extends ProductInventoryApis {
+
+        FakeProductInventoryApis() {
+            super(new it.eng.dome.tmforum.tmf637.v4.ApiClient());
+        }
+
+        @Override
+        public Product getProduct(String id, String fields) {
+            BomServiceTest.this.count("product");
+            ProductOfferingRef offering = new ProductOfferingRef();
+            offering.setId("urn:offering");
+            Product product = new Product();
+            product.setId(id);
+            product.setProductOffering(offering);
+            return product;
+        }
+    }
+
+    private class FakeProductCatalogManagementApis extends ProductCatalogManagementApis {
+
+        FakeProductCatalogManagementApis() {
+            super(new it.eng.dome.tmforum.tmf620.v4.ApiClient());
+        }
+
+        @Override
+        public ProductOffering getProductOffering(String id, String fields) {
+            BomServiceTest.this.count("offering");
+            ProductOffering offering = new ProductOffering();
+            offering.setId(id);
+            return offering;
+        }
+    }
+
+    private class FakePartyApis extends APIPartyApis {
+
+        FakePartyApis() {
+            super(new it.eng.dome.tmforum.tmf632.v4.ApiClient());
+        }
+
+        @Override
+        public Organization getOrganization(String id, String fields) {
+            BomServiceTest.this.count("organization");
+            Organization organization = new Organization();
+            organization.setId(id);
+            organization.setTradingName(id.equals("urn:seller") ? "Seller Ltd" : "Buyer Ltd");
+            return organization;
+        }
+    }
+
+    private class FakeAccountManagementApis extends AccountManagementApis {
+
+        FakeAccountManagementApis() {
+            super(new it.eng.dome.tmforum.tmf666.v4.ApiClient());
+        }
+
+        @Override
+        public List<BillingAccount> listBillingAccounts(String fields, int offset, int limit, Map<String, String> filter) {
+            BillingAccount account = new BillingAccount();
+            account.setId("urn:account:" + filter.get("relatedParty.id"));
+            return List.of(account);
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+package it.eng.dome.invoicing.engine.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import it.eng.dome.invoicing.engine.exception.ExternalServiceException;
+import it.eng.dome.invoicing.engine.model.ExportJob;
+import it.eng.dome.invoicing.engine.model.InvoiceArchive;
+import it.eng.dome.invoicing.engine.service.render.Envelope;
+import it.eng.dome.invoicing.engine.service.utils.ZipUtils;
+
+/**
+ * Export jobs run by a real executor on archives produced by a fake {@link InvoicingService}.
+ */
+public class ExportJobServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // released to let the archives of the fake invoicing service be written
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final AtomicInteger closedArchives = new AtomicInteger();
+
+    @AfterEach
+    public void tearDown() {
+        this.release.countDown();
+        this.executor.shutdownNow();
+    }
+
+    private ExportJobService service(Duration retention) throws IOException {
+        return new ExportJobService(new FakeInvoicingService(), this.executor, this.dir, retention);
+    }
+
+    @Test
+    public void writesTheArchiveOfAJob() throws Exception {
+        ExportJobService service = this.service(Duration.ofHours(1));
+
+        ExportJob job = service.submit("XML", "urn:buyer", null, null, null);
+        assertSame(job, service.getJob(job.getId()));
+        assertEquals("xml", job.getFormat());
+        this.release.countDown();
+        awaitFinished(job);
+
+        assertEquals(ExportJob.Status.COMPLETED, job.getStatus());
+        assertEquals("invoices-xml.zip", job.getArchiveName());
+        assertEquals(2, job.getRendered());
+        assertEquals(1, job.getFailed());
+        assertEquals(Integer.valueOf(3), job.getTotal());
+        Path archive = service.getArchive(job);
+        assertEquals(this.dir.resolve(ExportJobService.SPOOL), archive.getParent());
+        assertEquals(Long.valueOf(Files.size(archive)), job.getArchiveSize());
+        Map<String, String> entries = InvoicingServiceTest.unzip(Files.readAllBytes(archive));
+        assertEquals("<xml>urn:buyer</xml>", entries.get("invoice.xml"));
+        assertEquals(1, this.closedArchives.get());
+    }
+
+    @Test
+    public void closesTheArchiveWhenTheSpoolCannotBeWritten() throws Exception {
+        ExportJobService service = this.service(Duration.ofHours(1));
+        // keeps the job queued until its part file is in the way
+        CountDownLatch queued = new CountDownLatch(1);
+        this.executor.submit(() -> {
+            queued.await();
+            return null;
+        });
+        ExportJob job = service.submit("xml", null, null, null, null);
+        Files.createDirectories(this.dir.resolve(ExportJobService.SPOOL).resolve(job.getId() + ".zip.part"));
+        queued.countDown();
+        awaitFinished(job);
+
+        assertEquals(ExportJob.Status.FAILED, job.getStatus());
+        assertEquals(1, this.closedArchives.get());
+    }
+
+    @Test
+    public void namesTheArchiveOfARunningJob() throws Exception {
+        ExportJobService service = this.service(Duration.ofHours(1));
+
+        ExportJob job = service.submit("pdf", null, null, null, null);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (job.getArchiveName() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(ExportJob.Status.RUNNING, job.getStatus());
+        assertEquals("invoices-pdf.zip", job.getArchiveName());
+        assertNull(job.getTotal());
+        assertFalse(job.isFinished());
+    }
+
+    @Test
+    public void failsTheJobWhenTheInvoicesCannotBeRetrieved() throws Exception {
+        ExportJobService service = this.service(Duration.ofHours(1));
+
+        ExportJob job = service.submit("html", null, null, null, null);
+        awaitFinished(job);
+
+        assertEquals(ExportJob.Status.FAILED, job.getStatus());
+        assertEquals("External service error: TMF not available", job.getError());
+        assertFalse(Files.exists(service.getArchive(job)));
+        try (var files = Files.list(this.dir.resolve(ExportJobService.SPOOL))) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void rejectsUnsupportedFormats() throws Exception {
+        ExportJobService service = this.service(Duration.ofHours(1));
+
+        assertThrows(IllegalArgumentException.class, () -> service.submit("csv", null, null, null, null));
+    }
+
+    @Test
+    public void rejectsJobsWhenTheQueueIsFull() throws Exception {
+        this.executor.shutdown();
+        // one job running, one queued
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1));
+        ExportJobService service = this.service(Duration.ofHours(1));
+        ExportJob running = service.submit("xml", null, null, null, null);
+        ExportJob queued = service.submit("xml", null, null, null, null);
+
+        assertThrows(RejectedExecutionException.class, () -> service.submit("xml", null, null, null, null));
+
+        assertNotNull(service.getJob(running.getId()));
+        assertNotNull(service.getJob(queued.getId()));
+    }
+
+    @Test
+    public void removesTheJobsFinishedBeforeTheRetention() throws Exception {
+        ExportJobService service = this.service(Duration.ZERO);
+        this.release.countDown();
+        ExportJob job = service.submit("xml", null, null, null, null);
+        awaitFinished(job);
+        Path archive = service.getArchive(job);
+        assertTrue(Files.exists(archive));
+
+        service.removeExpiredJobs();
+
+        assertNull(service.getJob(job.getId()));
+        assertFalse(Files.exists(archive));
+    }
+
+    @Test
+    public void keepsTheJobsWithinTheRetention() throws Exception {
+        ExportJobService service = this.service(Duration.ofHours(1));
+        this.release.countDown();
+        ExportJob job = service.submit("xml", null, null, null, null);
+        awaitFinished(job);
+
+        service.removeExpiredJobs();
+
+        assertSame(job, service.getJob(job.getId()));
+        assertTrue(Files.exists(service.getArchive(job)));
+    }
+
+    @Test
+    public void cleansOnlyTheSpoolAtStartup() throws Exception {
+        Path spool = Files.createDirectories(this.dir.resolve(ExportJobService.SPOOL));
+        Path stale = Files.writeString(spool.resolve("stale.zip.part"), "stale");
+        Path other = Files.writeString(this.dir.resolve("other.zip"), "not an export");
+
+        this.service(Duration.ofHours(1));
+
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(other));
+    }
+
+    private static void awaitFinished(ExportJob job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!job.isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(job.isFinished(), "job " + job.getStatus());
+    }
+
+    private class FakeInvoicingService extends InvoicingService {
+
+        // two invoices written and one failed, once released
+        private InvoiceArchive archive(String suffix, String buyerId) {
+            return new InvoiceArchive("invoices-" + suffix + ".zip", (out, progress) -> {
+                try {
+                    ExportJobServiceTest.this.release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+                ZipOutputStream zos = new ZipOutputStream(out, StandardCharsets.UTF_8);
+                ZipUtils.writeEntry(zos, new Envelope<>("<xml>" + buyerId + "</xml>", "invoice", "xml"));
+                progress.written(1);
+                progress.failed(1);
+                ZipUtils.writeEntry(zos, new Envelope<>("<xml/>", "other", "xml"));
+                progress.written(2);
+                zos.finish();
+            }, ExportJobServiceTest.this.closedArchives::incrementAndGet);
+        }
+
+        @Override
+        public InvoiceArchive getInvoicesXml(String buyerId, String sellerId, OffsetDateTime fromDate, OffsetDateTime toDate) {
+            return this.archive("xml", buyerId);
+        }
+
+        @Override
+        public InvoiceArchive getInvoicesHtml(String buyerId, String sellerId, OffsetDateTime fromDate, OffsetDateTime toDate)
+                throws ExternalServiceException {
+            throw new ExternalServiceException("TMF not available");
+        }
+
+        @Override
+        public InvoiceArchive getInvoicesPdf(String buyerId, String sellerId, OffsetDateTime fromDate, OffsetDateTime toDate) {
+            return this.archive("pdf", buyerId);
+        }
+    }
+
+}
@@ -0,0 +1,326 @@
+package it.eng.dome.invoicing.engine.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import it.eng.dome.invoicing.engine.exception.ExternalServiceException;
+import it.eng.dome.invoicing.engine.metrics.PipelineMetrics;
+import it.eng.dome.invoicing.engine.model.InvoiceArchive;
+import it.eng.dome.invoicing.engine.model.InvoiceBom;
+import it.eng.dome.invoicing.engine.service.render.Envelope;
+import it.eng.dome.invoicing.engine.service.render.Html2Pdf;
+import it.eng.dome.invoicing.engine.service.render.ParallelRenderer;
+import it.eng.dome.invoicing.engine.service.render.RenderPipeline;
+import it.eng.dome.invoicing.engine.service.render.RenderPipeline.RenderedArtifacts;
+import it.eng.dome.invoicing.engine.service.store.ArtifactStore;
+import it.eng.dome.invoicing.engine.service.utils.PageIterator;
+import it.eng.dome.tmforum.tmf678.v4.model.CustomerBill;
+
+/**
+ * Bulk archives of invoices already rendered: the BOM service and the store are replaced by fakes,
+ * so that no TMForum API is called and nothing is rendered.
+ */
+public class InvoicingServiceTest {
+
+    private ExecutorService executor;
+
+    // bill id => invoice
+    private final Map<String, Invoice> invoices = new LinkedHashMap<>();
+
+    // number of bills retrieved before the TMForum API fails
+    private int billsAvailable = Integer.MAX_VALUE;
+
+    private int closedBills;
+
+    private InvoicingService service;
+
+    @BeforeEach
+    public void setUp() {
+        this.executor = Executors.newFixedThreadPool(2);
+        this.service = new InvoicingService();
+        this.service.bomService = new FakeBomService(this.executor);
+        this.service.artifactStore = new FakeArtifactStore();
+        this.service.parallelRenderer = new ParallelRenderer(this.executor, 2);
+        this.service.metrics = PipelineMetrics.NONE;
+        this.service.html2Pdf = new Html2Pdf(1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void namesEntriesAfterInvoices() throws Exception {
+        this.add("urn:bill:1", "Invoice from A to B on 2025-01-01", false);
+        this.add("urn:bill:2", "Invoice from A to C on 2025-01-01", false);
+
+        Map<String, String> entries = unzip(this.write(this.service.getInvoicesXml(null, null, null, null), new ArrayList<>()));
+
+        assertEquals(List.of("Invoice from A to B on 2025-01-01.xml", "Invoice from A to C on 2025-01-01.xml"), new ArrayList<>(entries.keySet()));
+        assertEquals("<xml>urn:bill:2</xml>", entries.get("Invoice from A to C on 2025-01-01.xml"));
+    }
+
+    @Test
+    public void appendsTheBillIdToDuplicateNames() throws Exception {
+        this.add("urn:ngsi-ld:customer-bill:b1", "Invoice from A to B on 2025-01-01", false);
+        this.add("urn:ngsi-ld:customer-bill:b2", "Invoice from A to B on 2025-01-01", false);
+        this.add("urn:ngsi-ld:customer-bill:b3", "Invoice from A to B on 2025-01-01", false);
+
+        Map<String, String> entries = unzip(this.write(this.service.getInvoicesXml(null, null, null, null), new ArrayList<>()));
+
+        assertEquals(List.of("Invoice from A to B on 2025-01-01.xml", "Invoice from A to B on 2025-01-01 (b2).xml",
+                "Invoice from A to B on 2025-01-01 (b3).xml"), new ArrayList<>(entries.keySet()));
+        assertEquals("<xml>urn:ngsi-ld:customer-bill:b3</xml>", entries.get("Invoice from A to B on 2025-01-01 (b3).xml"));
+    }
+
+    @Test
+    public void keepsNestedArchivesOfDuplicateNamesApart() throws Exception {
+        this.add("urn:ngsi-ld:customer-bill:b1", "Invoice", false);
+        this.add("urn:ngsi-ld:customer-bill:b2", "Invoice", false);
+
+        Map<String, String> entries = unzip(this.write(this.service.getInvoicesAll(null, null, null, null), new ArrayList<>()));
+
+        assertEquals(List.of("Invoice.zip", "Invoice (b2).zip"), new ArrayList<>(entries.keySet()));
+    }
+
+    @Test
+    public void listsTheInvoicesThatFailToRender() throws Exception {
+        this.add("urn:bill:1", "First", false);
+        this.add("urn:bill:2", "Second", true);
+        this.add("urn:bill:3", "Third", false);
+        List<String> progress = new ArrayList<>();
+
+        Map<String, String> entries = unzip(this.write(this.service.getInvoicesXml(null, null, null, null), progress));
+
+        assertEquals(List.of("First.xml", "Third.xml", "errors.txt"), new ArrayList<>(entries.keySet()));
+        assertEquals("Second (bill urn:bill:2): XML of urn:bill:2 not available\n", entries.get("errors.txt"));
+        assertEquals(List.of("written 1", "failed 1", "written 2"), progress);
+    }
+
+    @Test
+    public void abortsTheArchiveWhenABomCannotBeBuilt(@TempDir Path dir) throws Exception {
+        this.add("urn:bill:1", "First", false);
+        // not stored: its BOM has to be built
+        this.invoices.put("urn:bill:2", null);
+        this.add("urn:bill:3", "Third", false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        InvoiceArchive archive = this.service.getInvoicesXml(null, null, null, null);
+        IOException e = assertThrows(IOException.class, () -> archive.writeTo(out));
+
+        assertEquals("TMF not available for urn:bill:2", e.getCause().getMessage());
+        // no central directory: the truncated archive can't be opened
+        Path zip = Files.write(dir.resolve("truncated.zip"), out.toByteArray());
+        assertThrows(ZipException.class, () -> new ZipFile(zip.toFile()).close());
+    }
+
+    @Test
+    public void abortsTheArchiveWhenTheBillsCannotBeRetrieved() throws Exception {
+        this.add("urn:bill:1", "First", false);
+        this.add("urn:bill:2", "Second", false);
+        this.add("urn:bill:3", "Third", false);
+        this.billsAvailable = 2;
+        List<String> progress = new ArrayList<>();
+
+        InvoiceArchive archive = this.service.getInvoicesXml(null, null, null, null);
+        IOException e = assertThrows(IOException.class, () -> this.write(archive, progress));
+
+        assertTrue(e.getCause() instanceof ExternalServiceException, String.valueOf(e.getCause()));
+        assertEquals("TMF not available at 2", e.getCause().getMessage());
+        assertEquals(1, this.closedBills);
+    }
+
+    @Test
+    public void failsBeforeWritingWhenTheFirstBillsCannotBeRetrieved() {
+        this.add("urn:bill:1", "First", false);
+        this.billsAvailable = 0;
+
+        assertThrows(ExternalServiceException.class, () -> this.service.getInvoicesXml(null, null, null, null));
+        assertEquals(1, this.closedBills);
+    }
+
+    @Test
+    public void closesTheBillsOnceTheArchiveIsWritten() throws Exception {
+        this.add("urn:bill:1", "First", false);
+        this.add("urn:bill:2", "Second", false);
+        InvoiceArchive archive = this.service.getInvoicesXml(null, null, null, null);
+
+        this.write(archive, new ArrayList<>());
+        archive.close();
+
+        assertEquals(1, this.closedBills);
+        assertThrows(IOException.class, () -> this.write(archive, new ArrayList<>()));
+    }
+
+    @Test
+    public void namesAnEmptyArchiveAsAFile() throws Exception {
+        try (InvoiceArchive archive = this.service.getInvoicesPdf(null, null, null, null)) {
+            assertEquals("file-pdf.zip", archive.getName());
+        }
+    }
+
+    @Test
+    public void closesTheBillsOfAnArchiveNeverWritten() throws Exception {
+        this.add("urn:bill:1", "First", false);
+        this.add("urn:bill:2", "Second", false);
+
+        try (InvoiceArchive archive = this.service.getInvoicesXml(null, null, null, null)) {
+            assertEquals("First-xml.zip", archive.getName());
+        }
+
+        assertEquals(1, this.closedBills);
+    }
+
+    private void add(String billId, String name, boolean failing) {
+        this.invoices.put(billId, new Invoice(billId, name, failing));
+    }
+
+    private byte[] write(InvoiceArchive archive, List<String> progress) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archive.writeTo(out, new InvoiceArchive.Progress() {
+            @Override
+            public void written(int invoices) {
+                progress.add("written " + invoices);
+            }
+
+            @Override
+            public void failed(int invoices) {
+                progress.add("failed " + invoices);
+            }
+        });
+        return out.toByteArray();
+    }
+
+    // entry name => content, in archive order
+    static Map<String, String> unzip(byte[] zip) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip), StandardCharsets.UTF_8)) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                assertTrue(entries.put(entry.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8)) == null, "duplicate " + entry.getName());
+            }
+        }
+        return entries;
+    }
+
+    private static class Invoice implements RenderedArtifacts {
+
+        private final String billId;
+        private final String name;
+        private final boolean failing;
+
+        Invoice(String billId, String name, boolean failing) {
+            this.billId = billId;
+            this.name = name;
+            this.failing = failing;
+        }
+
+        @Override
+        public String getBillId() {
+            return this.billId;
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public Envelope<String> getXml() {
+            if (this.failing) {
+                throw new IllegalStateException("XML of " + this.billId + " not available");
+            }
+            return new Envelope<>("<xml>" + this.billId + "</xml>", this.name, "xml");
+        }
+
+        @Override
+        public Envelope<String> getHtml() {
+            return new Envelope<>("<html>" + this.billId + "</html>", this.name, "html");
+        }
+
+        @Override
+        public Envelope<ByteArrayOutputStream> getPdf() {
+            ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+            pdf.writeBytes(("%PDF " + this.billId).getBytes(StandardCharsets.UTF_8));
+            return new Envelope<>(pdf, this.name, "pdf");
+        }
+    }
+
+    private class FakeBomService extends BomService {
+
+        FakeBomService(ExecutorService executor) {
+            super(null, null, null, null, null, null, executor, PipelineMetrics.NONE);
+        }
+
+        @Override
+        public Bills getBillsFor(String buyerId, String sellerId, OffsetDateTime fromDate, OffsetDateTime toDate) {
+            List<CustomerBill> bills = new ArrayList<>();
+            for (String billId : InvoicingServiceTest.this.invoices.keySet()) {
+                CustomerBill cb = new CustomerBill();
+                cb.setId(billId);
+                bills.add(cb);
+            }
+            // one bill per page, as if they were retrieved while the archive is written
+            return new Bills(new BillQuery(buyerId, sellerId, fromDate, toDate),
+                    new PageIterator<>((offset, limit) -> {
+                        if (offset >= InvoicingServiceTest.this.billsAvailable) {
+                            throw new IOException("TMF not available at " + offset);
+                        }
+                        return offset < bills.size() ? List.of(bills.get(offset)) : List.of();
+                    }, 1)) {
+                @Override
+                public void close() {
+                    InvoicingServiceTest.this.closedBills++;
+                    super.close();
+                }
+            };
+        }
+
+        @Override
+        public Envelope<InvoiceBom> getBomFor(CustomerBill cb, TmfEntityCache cache) throws ExternalServiceException {
+            throw new ExternalServiceException("TMF not available for " + cb.getId());
+        }
+    }
+
+    private class FakeArtifactStore extends ArtifactStore {
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public RenderedArtifacts get(CustomerBill cb) {
+            return InvoicingServiceTest.this.invoices.get(cb.getId());
+        }
+
+        @Override
+        public void put(RenderPipeline pipeline) {
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package it.eng.dome.invoicing.engine.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import it.eng.dome.tmforum.tmf678.v4.model.Money;
+import it.eng.dome.tmforum.tmf678.v4.model.TaxItem;
+
+public class TaxItemAggregatorTest {
+
+    @Test
+    public void sumsAmountsByRateAndCategoryInFirstSeenOrder() {
+        TaxItemAggregator aggregator = new TaxItemAggregator();
+        aggregator.add(0.22f, "VAT", new BigDecimal("2.00"), "EUR");
+        aggregator.add(0.21f, "VAT", new BigDecimal("1.00"), "EUR");
+        aggregator.add(0.22f, "VAT2", new BigDecimal("1.50"), "EUR");
+        aggregator.add(0.21f, "VAT", new BigDecimal("3.20"), "EUR");
+        aggregator.add(0.22f, "VAT", new BigDecimal("0.30"), "EUR");
+
+        List<TaxItem> taxItems = aggregator.getTaxItems();
+
+        assertEquals(3, aggregator.size());
+        assertTaxItem(taxItems.get(0), 0.22f, "VAT", 2.30f, "EUR");
+        assertTaxItem(taxItems.get(1), 0.21f, "VAT", 4.20f, "EUR");
+        assertTaxItem(taxItems.get(2), 0.22f, "VAT2", 1.50f, "EUR");
+    }
+
+    @Test
+    public void keepsNullRatesAndCategoriesApart() {
+        TaxItemAggregator aggregator = new TaxItemAggregator();
+        aggregator.add(null, "VAT", new BigDecimal("1.00"), "EUR");
+        aggregator.add(0.22f, null, new BigDecimal("2.00"), "EUR");
+        aggregator.add(null, null, new BigDecimal("3.00"), "EUR");
+        aggregator.add(null, "VAT", new BigDecimal("1.00"), "EUR");
+        aggregator.add(Float.NaN, "VAT", new BigDecimal("5.00"), "EUR");
+
+        List<TaxItem> taxItems = aggregator.getTaxItems();
+
+        assertEquals(4, taxItems.size());
+        assertTaxItem(taxItems.get(0), null, "VAT", 2.00f, "EUR");
+        assertTaxItem(taxItems.get(1), 0.22f, null, 2.00f, "EUR");
+        assertTaxItem(taxItems.get(2), null, null, 3.00f, "EUR");
+        assertTaxItem(taxItems.get(3), Float.NaN, "VAT", 5.00f, "EUR");
+    }
+
+    @Test
+    public void growsBeyondTheInitialCapacity() {
+        TaxItemAggregator aggregator = new TaxItemAggregator();
+        // 100 keys, each added 3 times, interleaved so that every lookup goes through rehashed slots
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                aggregator.add(i / 100f, "VAT" + (i % 7), new BigDecimal(i).movePointLeft(2), "EUR");
+            }
+        }
+
+        List<TaxItem> taxItems = aggregator.getTaxItems();
+
+        assertEquals(100, taxItems.size());
+        for (int i = 0; i < 100; i++) {
+            assertTaxItem(taxItems.get(i), i / 100f, "VAT" + (i % 7), new BigDecimal(3 * i).movePointLeft(2).floatValue(), "EUR");
+        }
+    }
+
+    @Test
+    public void roundsEachAmountToTheCent() {
+        TaxItemAggregator aggregator = new TaxItemAggregator();
+        aggregator.add(0.22f, "VAT", new BigDecimal("0.005"), "EUR");
+        aggregator.add(0.22f, "VAT", new BigDecimal("0.005"), "EUR");
+        aggregator.add(0.22f, "VAT", new BigDecimal("0.004"), "EUR");
+
+        // 0.01 + 0.01 + 0.00, not round(0.014)
+        assertTaxItem(aggregator.getTaxItems().get(0), 0.22f, "VAT", 0.02f, "EUR");
+    }
+
+    @Test
+    public void keepsTheUnitOfTheFirstAmount() {
+        TaxItemAggregator aggregator = new TaxItemAggregator();
+        aggregator.add(0.22f, "VAT", new BigDecimal("1.00"), "EUR");
+        aggregator.add(0.22f, "VAT", new BigDecimal("1.00"), null);
+
+        assertTaxItem(aggregator.getTaxItems().get(0), 0.22f, "VAT", 2.00f, "EUR");
+    }
+
+    @Test
+    public void addsTaxItemsWithoutAmount() {
+        TaxItem withAmount = new TaxItem();
+        withAmount.setTaxRate(0.22f);
+        withAmount.setTaxCategory("VAT");
+        Money money = new Money();
+        money.setValue(1.25f);
+        money.setUnit("EUR");
+        withAmount.setTaxAmount(money);
+        TaxItem withoutAmount = new TaxItem();
+        withoutAmount.setTaxRate(0.10f);
+        withoutAmount.setTaxCategory("VAT");
+
+        TaxItemAggregator aggregator = new TaxItemAggregator();
+        aggregator.add(withAmount);
+        aggregator.add(withoutAmount);
+
+        List<TaxItem> taxItems = aggregator.getTaxItems();
+        assertTaxItem(taxItems.get(0), 0.22f, "VAT", 1.25f, "EUR");
+        assertTaxItem(taxItems.get(1), 0.10f, "VAT", 0f, null);
+    }
+
+    private static void assertTaxItem(TaxItem taxItem, Float rate, String category, float amount, String unit) {
+        if (rate == null) {
+            assertNull(taxItem.getTaxRate());
+        } else {
+            assertEquals(rate, taxItem.getTaxRate());
+        }
+        assertEquals(category, taxItem.getTaxCategory());
+        assertEquals(amount, taxItem.getTaxAmount().getValue(), 0f);
+        assertEquals(unit, taxItem.getTaxAmount().getUnit());
+    }
+
+}
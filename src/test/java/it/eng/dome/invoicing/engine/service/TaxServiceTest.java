@@ -0,0 +1,221 @@
+package it.eng.dome.invoicing.engine.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.eng.dome.brokerage.api.APIPartyApis;
+import it.eng.dome.brokerage.model.Invoice;
+import it.eng.dome.invoicing.engine.rate.RateManager;
+import it.eng.dome.invoicing.engine.rate.VatRateTable;
+import it.eng.dome.invoicing.tedb.TEDBClient;
+import it.eng.dome.tmforum.tmf632.v4.ApiClient;
+import it.eng.dome.tmforum.tmf632.v4.model.Characteristic;
+import it.eng.dome.tmforum.tmf632.v4.model.Organization;
+import it.eng.dome.tmforum.tmf678.v4.model.AppliedCustomerBillingRate;
+import it.eng.dome.tmforum.tmf678.v4.model.CustomerBill;
+import it.eng.dome.tmforum.tmf678.v4.model.Money;
+import it.eng.dome.tmforum.tmf678.v4.model.RelatedParty;
+import it.eng.dome.tmforum.tmf678.v4.model.TimePeriod;
+
+/**
+ * Taxes of a batch of invoices, with the TaxService, RateManager and VatRateTable of the service, the
+ * bundled VAT rates and a fake party API answering after a latency, so that the rates are retrieved
+ * concurrently. TEDB is not reachable: the rates of the batch are all known by the VAT rate table.
+ */
+public class TaxServiceTest {
+
+    private static final Map<String, AtomicInteger> partyRequests = new ConcurrentHashMap<>();
+
+    private AnnotationConfigApplicationContext context;
+
+    private TaxService taxService;
+
+    @BeforeEach
+    public void setUp() {
+        partyRequests.clear();
+        this.context = new AnnotationConfigApplicationContext(TestContext.class);
+        this.taxService = this.context.getBean(TaxService.class);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Test
+    public void retrievesTheCountryOfEachPartyOnce() throws Exception {
+        // one invoice per day of January, each with a rate of its own
+        List<Invoice> invoices = new ArrayList<>();
+        for (int day = 1; day <= 31; day++) {
+            invoices.add(invoice("urn:seller:it", "urn:buyer:it", day, 2));
+        }
+
+        this.taxService.applyTaxes(invoices);
+
+        assertEquals(Map.of("urn:seller:it", 1, "urn:buyer:it", 1), requests());
+    }
+
+    @Test
+    public void appliesTheRateOfEachAcbr() throws Exception {
+        List<Invoice> invoices = List.of(invoice("urn:seller:it", "urn:buyer:it", 1, 2), invoice("urn:seller:it", "urn:buyer:de", 2, 1));
+
+        List<Invoice> taxed = this.taxService.applyTaxes(invoices);
+
+        assertEquals(2, taxed.size());
+        for (AppliedCustomerBillingRate acbr : taxed.get(0).getAcbrs()) {
+            assertEquals(12.2f, acbr.getTaxIncludedAmount().getValue(), 0.001f);
+        }
+        assertEquals(24.4f, taxed.get(0).getCustomerBill().getTaxIncludedAmount().getValue(), 0.001f);
+        // different countries: no VAT
+        assertEquals(10f, taxed.get(1).getCustomerBill().getTaxIncludedAmount().getValue(), 0.001f);
+        assertEquals(Map.of("urn:seller:it", 1, "urn:buyer:it", 1, "urn:buyer:de", 1), requests());
+    }
+
+    @Test
+    public void failsTheBatchWhenAPartyIsMissing() {
+        // as many rates as the threads retrieving them, all looking up the buyer at the same time
+        List<Invoice> invoices = new ArrayList<>();
+        for (int day = 1; day <= 8; day++) {
+            invoices.add(invoice("urn:seller:it", "urn:buyer:missing", day, 1));
+        }
+
+        assertThrows(Exception.class, () -> this.taxService.applyTaxes(invoices));
+        // not retrieved again by the other rates
+        assertEquals(Integer.valueOf(1), requests().get("urn:buyer:missing"));
+    }
+
+    private static Map<String, Integer> requests() {
+        Map<String, Integer> requests = new HashMap<>();
+        partyRequests.forEach((id, count) -> requests.put(id, count.get()));
+        return requests;
+    }
+
+    // an invoice of the given day of January 2025, with ACBRs of 10 EUR each
+    private static Invoice invoice(String sellerId, String buyerId, int day, int acbrs) {
+        OffsetDateTime date = OffsetDateTime.parse("2025-01-01T12:00:00Z").withDayOfMonth(day);
+
+        CustomerBill cb = new CustomerBill();
+        cb.setId("urn:bill:" + day);
+        cb.setBillDate(date);
+        Money taxExcluded = new Money();
+        taxExcluded.setUnit("EUR");
+        taxExcluded.setValue(10f * acbrs);
+        cb.setTaxExcludedAmount(taxExcluded);
+
+        List<AppliedCustomerBillingRate> items = new ArrayList<>();
+        for (int i = 0; i < acbrs; i++) {
+            Money amount = new Money();
+            amount.setUnit("EUR");
+            amount.setValue(10f);
+            TimePeriod period = new TimePeriod();
+            period.setEndDateTime(date);
+            AppliedCustomerBillingRate acbr = new AppliedCustomerBillingRate();
+            acbr.setId(cb.getId() + ":acbr:" + i);
+            acbr.setTaxExcludedAmount(amount);
+            acbr.setPeriodCoverage(period);
+            acbr.setRelatedParty(new ArrayList<>(List.of(party(sellerId, "Seller"), party(buyerId, "Buyer"))));
+            items.add(acbr);
+        }
+        return new Invoice(cb, items);
+    }
+
+    private static RelatedParty party(String id, String role) {
+        RelatedParty party = new RelatedParty();
+        party.setId(id);
+        party.setRole(role);
+        return party;
+    }
+
+    @Configuration
+    @Import({ VatRateTable.class, RateManager.class, TaxService.class })
+    static class TestContext {
+
+        @Bean(destroyMethod = "shutdownNow")
+        public ExecutorService tmfExecutor() {
+            return Executors.newFixedThreadPool(8);
+        }
+
+        @Bean
+        public APIPartyApis apiPartyApis() {
+            return new FakePartyApis();
+        }
+
+        @Bean
+        public TEDBClient tedbClient() {
+            return new UnreachableTEDBClient();
+        }
+
+        @Bean
+        public TEDBClient tedbCachedClient() {
+            return new UnreachableTEDBClient();
+        }
+
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    /*
+     * Returns the organizations with the country at the end of their id, after a latency long enough
+     * for the rates of a batch to look them up at the same time. Missing organizations end with "missing".
+     */
+    private static class FakePartyApis extends APIPartyApis {
+
+        FakePartyApis() {
+            super(new ApiClient());
+        }
+
+        @Override
+        public Organization getOrganization(String id, String fields) {
+            partyRequests.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (id.endsWith("missing")) {
+                return null;
+            }
+            Characteristic country = new Characteristic();
+            country.setName("country");
+            country.setValue(id.substring(id.lastIndexOf(':') + 1).toUpperCase());
+
+            Organization organization = new Organization();
+            organization.setId(id);
+            organization.setPartyCharacteristic(new ArrayList<>(List.of(country)));
+            return organization;
+        }
+    }
+
+    private static class UnreachableTEDBClient extends TEDBClient {
+
+        @Override
+        public Number getVATRateInCountryAtDate(String countryCode, Calendar date) throws IOException {
+            throw new IOException("TEDB not available");
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package it.eng.dome.invoicing.engine.service.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.OffsetDateTime;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import it.eng.dome.invoicing.engine.model.InvoiceBom;
+import it.eng.dome.invoicing.engine.service.render.Envelope;
+import it.eng.dome.invoicing.engine.service.render.RenderPipeline;
+import it.eng.dome.invoicing.engine.service.render.RenderPipeline.RenderedArtifacts;
+import it.eng.dome.tmforum.tmf678.v4.model.CustomerBill;
+
+public class ArtifactStoreTest {
+
+    private static final OffsetDateTime REVISION = OffsetDateTime.parse("2025-01-01T10:00:00Z");
+
+    @TempDir
+    Path dir;
+
+    private ArtifactStore store;
+
+    @BeforeEach
+    public void setUp() {
+        this.store = new ArtifactStore(this.dir);
+    }
+
+    @Test
+    public void servesTheStoredRevision() {
+        this.store.put(rendered(bill(REVISION), xml("<xml/>"), html("<html/>")));
+
+        RenderedArtifacts stored = this.store.get(bill(REVISION));
+
+        assertNotNull(stored);
+        assertEquals("urn:bill:1", stored.getBillId());
+        assertEquals("Invoice", stored.getName());
+        assertEquals("<xml/>", stored.getXml().getContent());
+        assertEquals("<html/>", stored.getHtml().getContent());
+        assertNull(stored.getPdf());
+    }
+
+    @Test
+    public void missesAnotherRevision() {
+        this.store.put(rendered(bill(REVISION), xml("<xml/>")));
+
+        assertNull(this.store.get(bill(REVISION.plusSeconds(1))));
+    }
+
+    @Test
+    public void missesBillsWithoutRevision() {
+        this.store.put(rendered(bill(null), xml("<xml/>")));
+
+        assertNull(this.store.get(bill(null)));
+    }
+
+    @Test
+    public void replacesTheArtifactsOfAnOlderRevision() {
+        this.store.put(rendered(bill(REVISION), xml("<xml/>"), html("<html/>")));
+        this.store.put(rendered(bill(REVISION.plusSeconds(1)), xml("<xml v2/>")));
+
+        RenderedArtifacts stored = this.store.get(bill(REVISION.plusSeconds(1)));
+
+        assertEquals("<xml v2/>", stored.getXml().getContent());
+        assertNull(stored.getHtml());
+        assertNull(this.store.get(bill(REVISION)));
+    }
+
+    @Test
+    public void missesWhenTheXmlBlobIsMissing() throws Exception {
+        this.store.put(rendered(bill(REVISION), xml("<xml/>")));
+        Files.delete(this.blob("<xml/>"));
+
+        assertNull(this.store.get(bill(REVISION)));
+    }
+
+    @Test
+    public void storesTheFormatsRenderedOnTopOfStoredArtifacts() {
+        this.store.put(rendered(bill(REVISION), xml("<xml/>")));
+        RenderedArtifacts stored = this.store.get(bill(REVISION));
+
+        this.store.put(rendered(stored, stored.getXml(), html("<html/>")));
+
+        assertEquals("<html/>", this.store.get(bill(REVISION)).getHtml().getContent());
+    }
+
+    @Test
+    public void storesAgainTheFormatsWhoseBlobIsMissing() throws Exception {
+        this.store.put(rendered(bill(REVISION), xml("<xml/>"), html("<html/>")));
+        Files.delete(this.blob("<html/>"));
+        RenderedArtifacts stored = this.store.get(bill(REVISION));
+        assertNull(stored.getHtml());
+
+        this.store.put(rendered(stored, stored.getXml(), html("<html/>")));
+
+        assertEquals("<html/>", this.store.get(bill(REVISION)).getHtml().getContent());
+    }
+
+    @Test
+    public void doesNotStoreOverANewerRevision() {
+        this.store.put(rendered(bill(REVISION), xml("<xml/>")));
+        RenderedArtifacts stored = this.store.get(bill(REVISION));
+        this.store.put(rendered(bill(REVISION.plusSeconds(1)), xml("<xml v2/>")));
+
+        this.store.put(rendered(stored, stored.getXml(), html("<html/>")));
+
+        assertNull(this.store.get(bill(REVISION)));
+        assertNull(this.store.get(bill(REVISION.plusSeconds(1))).getHtml());
+    }
+
+    private Path blob(String content) throws Exception {
+        String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)));
+        return this.dir.resolve("blobs").resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static CustomerBill bill(OffsetDateTime lastUpdate) {
+        CustomerBill cb = new CustomerBill();
+        cb.setId("urn:bill:1");
+        cb.setLastUpdate(lastUpdate);
+        return cb;
+    }
+
+    private static Envelope<String> xml(String content) {
+        return new Envelope<>(content, "Invoice", "xml");
+    }
+
+    private static Envelope<String> html(String content) {
+        return new Envelope<>(content, "Invoice", "html");
+    }
+
+    // a pipeline of the bill that has rendered the given envelopes, without rendering anything
+    private static RenderPipeline rendered(CustomerBill cb, Envelope<?>... envelopes) {
+        return new RenderPipeline(new Envelope<>(new InvoiceBom(cb), "Invoice", "bom")) {
+            @Override
+            public List<Envelope<?>> getRendered() {
+                return List.of(envelopes);
+            }
+        };
+    }
+
+    // a pipeline starting from the stored artifacts that has read or rendered the given envelopes
+    private static RenderPipeline rendered(RenderedArtifacts stored, Envelope<?>... envelopes) {
+        return new RenderPipeline(stored) {
+            @Override
+            public List<Envelope<?>> getRendered() {
+                return List.of(envelopes);
+            }
+        };
+    }
+
+}
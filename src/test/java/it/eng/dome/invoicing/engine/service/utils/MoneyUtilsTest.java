@@ -0,0 +1,53 @@
+package it.eng.dome.invoicing.engine.service.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+
+public class MoneyUtilsTest {
+
+    @Test
+    public void convertsFloatsThroughTheirShortestRepresentation() {
+        assertEquals(new BigDecimal("0.1"), MoneyUtils.toDecimal(0.1f));
+        assertEquals(new BigDecimal("2.345"), MoneyUtils.toDecimal(2.345f));
+        assertEquals(BigDecimal.ZERO, MoneyUtils.toDecimal(null));
+    }
+
+    @Test
+    public void roundsAmountsHalfUpToTheCent() {
+        assertEquals(new BigDecimal("1.01"), MoneyUtils.toAmount(new BigDecimal("1.005")));
+        assertEquals(new BigDecimal("1.00"), MoneyUtils.toAmount(new BigDecimal("1.0049")));
+        assertEquals(new BigDecimal("-1.01"), MoneyUtils.toAmount(new BigDecimal("-1.005")));
+        // 1.005f is 1.00499... in binary, but 1.005 through its shortest representation
+        assertEquals(new BigDecimal("1.01"), MoneyUtils.toAmount(1.005f));
+        assertEquals(new BigDecimal("0.00"), MoneyUtils.toAmount(null));
+    }
+
+    @Test
+    public void computesTheTaxOfTheRoundedAmount() {
+        assertEquals(new BigDecimal("4.40"), MoneyUtils.taxOf(new BigDecimal("19.99"), new BigDecimal("0.22")));
+        // 10.005 is rounded to 10.01 first: 2.2022, not 2.2011
+        assertEquals(new BigDecimal("2.20"), MoneyUtils.taxOf(new BigDecimal("10.005"), new BigDecimal("0.22")));
+        assertEquals(new BigDecimal("0.00"), MoneyUtils.taxOf(new BigDecimal("0.02"), new BigDecimal("0.22")));
+    }
+
+    @Test
+    public void keepsTheDecimalsOfTheRate() {
+        BigDecimal rate = MoneyUtils.toRate(0.255f);
+
+        assertEquals(new BigDecimal("0.255"), rate);
+        assertEquals(new BigDecimal("25.50"), MoneyUtils.taxOf(new BigDecimal("100"), rate));
+        // 2.54745: 2.60 if the rate were rounded to 0.26
+        assertEquals(new BigDecimal("2.55"), MoneyUtils.taxOf(new BigDecimal("9.99"), rate));
+    }
+
+    @Test
+    public void convertsAmountsToCentsAndBack() {
+        assertEquals(123457, MoneyUtils.toCents(new BigDecimal("1234.565")));
+        assertEquals(new BigDecimal("1234.57"), MoneyUtils.fromCents(123457));
+        assertEquals("1234.50", MoneyUtils.format(new BigDecimal("1234.5")));
+    }
+
+}
@@ -0,0 +1,142 @@
+package it.eng.dome.invoicing.tedb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RefreshingCacheTest {
+
+    private CacheManager cacheManager;
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        this.cacheManager = CacheManagerBuilder.newCacheManagerBuilder().build(true);
+        this.executor = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.executor.shutdownNow();
+        this.cacheManager.close();
+    }
+
+    private RefreshingCache<String> cache(int size, Duration refreshAfter, Executor refresher) {
+        Cache<String, String> cache = this.cacheManager.createCache("test",
+                CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, String.class, ResourcePoolsBuilder.heap(size)));
+        return new RefreshingCache<>("test", cache, refreshAfter, refresher);
+    }
+
+    @Test
+    public void sharesOneLoadBetweenConcurrentMisses() throws Exception {
+        RefreshingCache<String> cache = this.cache(10, Duration.ofHours(1), Runnable::run);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> lookups = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            lookups.add(this.executor.submit(() -> cache.get("key", () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                release.await();
+                return "value";
+            })));
+        }
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        // let the other lookups reach the load in progress
+        Thread.sleep(200);
+        release.countDown();
+
+        for (Future<String> lookup : lookups) {
+            assertEquals("value", lookup.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void sharesTheFailureOfALoadAndRetriesOnTheNextLookup() throws Exception {
+        RefreshingCache<String> cache = this.cache(10, Duration.ofHours(1), Runnable::run);
+
+        assertThrows(IOException.class, () -> cache.get("key", () -> {
+            throw new IOException("TEDB down");
+        }));
+
+        assertEquals("value", cache.get("key", () -> "value"));
+    }
+
+    @Test
+    public void servesTheStaleValueWhileRefreshing() throws Exception {
+        // every value is stale as soon as it is loaded, and refreshed on the caller thread
+        RefreshingCache<String> cache = this.cache(10, Duration.ZERO, Runnable::run);
+        AtomicInteger loads = new AtomicInteger();
+        RefreshingCache.Loader<String> loader = () -> "v" + loads.incrementAndGet();
+
+        assertEquals("v1", cache.get("key", loader));
+        assertEquals("v1", cache.get("key", loader));
+        assertEquals("v2", cache.get("key", loader));
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void keepsServingTheStaleValueWhenRefreshFails() throws Exception {
+        RefreshingCache<String> cache = this.cache(10, Duration.ZERO, Runnable::run);
+        cache.get("key", () -> "v1");
+
+        RefreshingCache.Loader<String> failing = () -> {
+            throw new IOException("TEDB down");
+        };
+        assertEquals("v1", cache.get("key", failing));
+        assertEquals("v1", cache.get("key", failing));
+    }
+
+    @Test
+    public void doesNotRefreshFreshValues() throws Exception {
+        RefreshingCache<String> cache = this.cache(10, Duration.ofHours(1), Runnable::run);
+        AtomicInteger loads = new AtomicInteger();
+        RefreshingCache.Loader<String> loader = () -> "v" + loads.incrementAndGet();
+
+        cache.get("key", loader);
+        assertEquals("v1", cache.get("key", loader));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void forgetsTheLoadTimeOfEvictedKeys() throws Exception {
+        RefreshingCache<String> cache = this.cache(2, Duration.ofHours(1), Runnable::run);
+        for (int i = 0; i < 20; i++) {
+            String key = "key" + i;
+            cache.get(key, () -> key);
+        }
+
+        // removal events are delivered asynchronously
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.loadTimes() > 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(cache.loadTimes() <= 2, "load times of " + cache.loadTimes() + " keys");
+    }
+
+}